@@ -0,0 +1,83 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Action;
+
+import States.FSMVariables;
+
+/**
+ * <h1>An Action reading and writing the extended-state variables of the FSM</h1>
+ * 
+ * <p>This Class is an abstract class and needs to be implemented to instantiate.<br/>
+ * The action method is passed the values of the extended-state variables of
+ * the FSM taking the transition, which it reads and writes through the 
+ * accessors of the definition, looked up once; returning false keeps the
+ * FSM in its current state, so that the action acts as a guard on the 
+ * variables as well.<br/>
+ * <pre>
+ * final FSMVariable retries = definition.getVariable("retries");
+ * definition.setAction("RETRY", new FSMVariableAction() {
+ *     public boolean action(String curState, String message, 
+ *             String nextState, FSMVariables vars, Object args) {
+ *         return retries.add(vars, 1) &lt;= 3;
+ *     }
+ * });
+ * </pre>
+ * </p>
+ * 
+ * @version 1.00
+ * @author ANKIT
+ */
+public abstract class FSMVariableAction extends FSMAction {
+    
+    /**
+     * 
+     * Abstract method; needs to be implemented<br/>
+     * 
+     * @param curState <br/>
+     * This value represents the Current State of the FSM. <br/>
+     * @param message <br/>
+     * This value specifies the Message for the FSM in Current state. <br/>
+     * @param nextState <br/>
+     * This value specifies the State to be transitioned to; iff, Fsm transition
+     * happens.
+     * @param vars <br/>
+     * This value holds the extended-state variables of the FSM; null, if its
+     * definition declares none.<br/>
+     * @param args <br/>
+     * This value specifies the argument if any to be passed to the State Node.<br/>
+     * @return  
+     */
+    public abstract boolean action(String curState, String message, 
+            String nextState, FSMVariables vars, Object args);
+    
+    /**
+     * Method is called when the action is run without a FSM, passing no
+     * variables<br/>
+     */
+    @Override
+    public boolean action(String curState, String message, String nextState, 
+            Object args) {
+        return action(curState, message, nextState, null, args);
+    }
+}
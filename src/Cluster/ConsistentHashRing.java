@@ -0,0 +1,94 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Cluster;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class implements a consistent hash ring of nodes<br/>
+ * 
+ * <p>
+ * Each node is placed on the ring at a number of virtual points; a key is
+ * owned by the node of the first point following the hash of the key.
+ * When a node joins or leaves, only the keys of the ring segments it
+ * gains or loses change their owner.<br/>
+ * A ring is immutable; membership changes build a new ring.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class ConsistentHashRing {
+    
+    private final TreeMap<Long, String> _ring = new TreeMap<Long, String>();
+    
+    /**
+     * 
+     * @param nodes         Identifiers of the member nodes
+     * @param virtualPoints Number of points of each node on the ring
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualPoints) {
+        for (String node : nodes) {
+            for (int i = 0; i < virtualPoints; i++) {
+                this._ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @param key Key of a FSM instance
+     * @return Identifier of the node owning the key; null, if ring is empty
+     */
+    public String owner(String key) {
+        if (this._ring.isEmpty()) return null;
+        Map.Entry<Long, String> e = this._ring.ceilingEntry(hash(key));
+        return (e != null ? e : this._ring.firstEntry()).getValue();
+    }
+    
+    /**
+     * 
+     * @return true, iff ring has no member
+     */
+    public boolean isEmpty() { return this._ring.isEmpty(); }
+    
+    /*
+     * 64 bit FNV-1a hash of the string, with a final avalanche so that 
+     * similar keys are spread over the ring.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+}
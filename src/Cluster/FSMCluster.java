@@ -0,0 +1,197 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Cluster;
+
+import Action.FSMAction;
+import States.FSMDefinition;
+import States.FSMTransitionResult;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class manages the membership of a partitioned FSM cluster<br/>
+ * 
+ * <p>
+ * FSM instances are partitioned over the member nodes by consistent hashing
+ * of their keys. Nodes can join and leave at any time; instances move to
+ * their new owner as the members change.<br/>
+ * With the {@link LoopbackTransport} all nodes run within this JVM, which
+ * allows multi-node behavior and throughput to be exercised without a 
+ * network. With another transport, each JVM would run its own nodes and 
+ * propagate membership changes to {@link FSMClusterNode#setMembers}.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMCluster {
+    
+    private final FSMDefinition _definition;
+    private final FSMAction _action;
+    private final FSMTransport _transport;
+    private final int _batchSize;
+    private final long _lingerMillis;
+    private final LinkedHashMap<String, FSMClusterNode> _nodes = 
+            new LinkedHashMap<String, FSMClusterNode>();
+    private volatile FSMClusterNode[] _entries = new FSMClusterNode[0];
+    private final AtomicInteger _next = new AtomicInteger();
+    
+    /**
+     * 
+     * @param definition   Definition of the FSM instances
+     * @param action       Default action of the FSM instances
+     * @param transport    Transport between the nodes
+     * @param batchSize    Number of envelopes after which a batch is sent
+     * @param lingerMillis Time after which an incomplete batch is sent
+     */
+    public FSMCluster(FSMDefinition definition, FSMAction action, 
+            FSMTransport transport, int batchSize, long lingerMillis) {
+        this._definition = definition;
+        this._action = action;
+        this._transport = transport;
+        this._batchSize = batchSize;
+        this._lingerMillis = lingerMillis;
+    }
+    
+    /**
+     * Constructor creates an in-process cluster over a loopback transport<br/>
+     * 
+     * @param definition   Definition of the FSM instances
+     * @param action       Default action of the FSM instances
+     */
+    public FSMCluster(FSMDefinition definition, FSMAction action) {
+        this(definition, action, new LoopbackTransport(), 64, 1);
+    }
+    
+    /**
+     * Method adds a node to the cluster; keys it now owns move to it<br/>
+     * The method returns once the instances of those keys have been handed
+     * over to the node.<br/>
+     * 
+     * @param nodeId Identifier of the node
+     * @return The started node
+     */
+    public synchronized FSMClusterNode join(String nodeId) {
+        if (this._nodes.containsKey(nodeId)) {
+            throw new IllegalArgumentException("Node already joined: " + nodeId);
+        }
+        FSMClusterNode n = new FSMClusterNode(nodeId, this._definition, 
+                this._action, this._transport, this._batchSize, this._lingerMillis);
+        n.start();
+        this._nodes.put(nodeId, n);
+        List<String> members = new ArrayList<String>(this._nodes.keySet());
+        for (FSMClusterNode m : this._nodes.values()) m.setMembers(members);
+        this._entries = this._nodes.values().toArray(new FSMClusterNode[0]);
+        try {
+            awaitHandoffs();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return n;
+    }
+    
+    /**
+     * Method removes a node from the cluster, once its instances have been
+     * handed over to the remaining nodes<br/>
+     * 
+     * @param nodeId Identifier of the node
+     * @throws InterruptedException
+     */
+    public synchronized void leave(String nodeId) throws InterruptedException {
+        FSMClusterNode n = this._nodes.remove(nodeId);
+        if (n == null) return;
+        this._entries = this._nodes.values().toArray(new FSMClusterNode[0]);
+        List<String> members = new ArrayList<String>(this._nodes.keySet());
+        for (FSMClusterNode m : this._nodes.values()) {
+            m.setMembers(members);
+            m.flush();
+        }
+        n.setMembers(members);
+        awaitHandoffs();
+        n.stop();
+    }
+    
+    /*
+     * Waits until the handoffs of the last membership change have landed,
+     * so that changes do not overlap
+     */
+    private void awaitHandoffs() throws InterruptedException {
+        for (FSMClusterNode m : this._nodes.values()) {
+            m.awaitHandoffs(1, TimeUnit.MINUTES);
+        }
+    }
+    
+    /**
+     * Method submits a message for the FSM instance of a key<br/>
+     * Messages are submitted on the nodes in turn, and reach the owning node
+     * through the transport.<br/>
+     * 
+     * @param key     Key of the FSM instance
+     * @param message Message to be processed
+     * @return Future result of the transition
+     * @throws IllegalStateException if the cluster has no node
+     */
+    public CompletableFuture<FSMTransitionResult> process(String key, 
+            String message) {
+        FSMClusterNode[] e = this._entries;
+        if (e.length == 0) throw new IllegalStateException("Cluster has no node");
+        return e[(this._next.getAndIncrement() & 0x7fffffff) % e.length]
+                .process(key, message);
+    }
+    
+    /**
+     * Method sends the envelopes collected on all nodes<br/>
+     */
+    public void flush() {
+        for (FSMClusterNode n : this._entries) n.flush();
+    }
+    
+    /**
+     * Method stops all nodes<br/>
+     * 
+     * @throws InterruptedException
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        for (FSMClusterNode n : this._nodes.values()) n.stop();
+        this._nodes.clear();
+        this._entries = new FSMClusterNode[0];
+    }
+    
+    /**
+     * 
+     * @return Nodes of the cluster
+     */
+    public synchronized List<FSMClusterNode> getNodes() {
+        return new ArrayList<FSMClusterNode>(this._nodes.values());
+    }
+    
+    /**
+     * 
+     * @return Transport between the nodes
+     */
+    public FSMTransport getTransport() { return this._transport; }
+}
@@ -0,0 +1,523 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Cluster;
+
+import Action.FSMAction;
+import FSM.FSM;
+import States.FSMDefinition;
+import States.FSMTransitionResult;
+import States.FSMVariables;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class implements one node of a partitioned FSM cluster<br/>
+ * 
+ * <p>
+ * A node holds the FSM instances of the keys it owns on the consistent hash
+ * ring of the cluster members. A message submitted on any node is sent to
+ * the owning node, processed there, and its result is sent back to the node
+ * it was submitted on.<br/>
+ * All received traffic is handled by a single worker thread of the node,
+ * hence FSM instances of a node are never used concurrently. Outgoing
+ * envelopes are collected per destination and sent in batches: a batch is
+ * sent once it reaches the batch size, once the linger time elapses, and
+ * after each received batch has been handled.<br/>
+ * When the members change, the node hands the instances of the keys it no
+ * longer owns, by their current state and the values of their variables,
+ * over to their new owner, and then
+ * tells every member it is done. Messages reaching a node which does not 
+ * own their key are forwarded. Messages for a key the node has just gained
+ * are held until the former owner of the key is done handing over, so that
+ * they are processed in the handed over state, not in the initial one.
+ * A node removed from the cluster shall hence be given the new members as
+ * well, for it to hand its instances over; and a membership change shall
+ * be made once the handoffs of the previous one have landed, see
+ * {@link #awaitHandoffs}.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMClusterNode {
+    
+    private final String _id;
+    private final FSMDefinition _definition;
+    private final FSMAction _action;
+    private final FSMTransport _transport;
+    private final int _batchSize;
+    private final long _lingerMillis;
+    private final int _virtualPoints;
+    
+    /* Instances are modified by the worker thread only; each is used under
+       its own lock */
+    private final ConcurrentHashMap<String, FSM> _instances = 
+            new ConcurrentHashMap<String, FSM>();
+    private final ConcurrentHashMap<Long, CompletableFuture<FSMTransitionResult>> _pending =
+            new ConcurrentHashMap<Long, CompletableFuture<FSMTransitionResult>>();
+    private final HashMap<String, ArrayList<FSMEnvelope>> _outbox = 
+            new HashMap<String, ArrayList<FSMEnvelope>>();
+    private final AtomicLong _ids = new AtomicLong();
+    private volatile ConsistentHashRing _ring;
+    
+    /*
+     * Membership, used by the worker thread only: the members and the ring
+     * before the last change, null if unknown; the identifier of the 
+     * current members; the members yet to hand their instances over, those
+     * done with members not yet set here, by identifier of the members, and
+     * the messages held meanwhile; the future completed once all are done
+     */
+    private List<String> _members;
+    private ConsistentHashRing _previous;
+    private long _view;
+    private final HashSet<String> _awaited = new HashSet<String>();
+    private final HashMap<Long, HashSet<String>> _early = 
+            new HashMap<Long, HashSet<String>>();
+    private final ArrayList<FSMEnvelope> _held = new ArrayList<FSMEnvelope>();
+    private CompletableFuture<Void> _change;
+    /* Completed once the handoffs of the last change have landed */
+    private volatile CompletableFuture<Void> _landed = 
+            CompletableFuture.completedFuture(null);
+    
+    private ExecutorService _worker;
+    private ScheduledExecutorService _flusher;
+    
+    private final AtomicLong _processed = new AtomicLong();
+    private final AtomicLong _forwarded = new AtomicLong();
+    private final AtomicLong _handedOff = new AtomicLong();
+    private final AtomicLong _batchesSent = new AtomicLong();
+    
+    /**
+     * 
+     * @param nodeId       Identifier of the node, unique within the cluster
+     * @param definition   Definition of the FSM instances
+     * @param action       Default action of the FSM instances
+     * @param transport    Transport to the other nodes
+     * @param batchSize    Number of envelopes after which a batch is sent
+     * @param lingerMillis Time after which an incomplete batch is sent; 
+     *                     0 sends every submitted message at once
+     */
+    public FSMClusterNode(String nodeId, FSMDefinition definition, 
+            FSMAction action, FSMTransport transport, int batchSize, 
+            long lingerMillis) {
+        this._id = nodeId;
+        this._definition = definition;
+        this._action = action;
+        this._transport = transport;
+        this._batchSize = Math.max(1, batchSize);
+        this._lingerMillis = lingerMillis;
+        this._virtualPoints = 64;
+        this._ring = new ConsistentHashRing(Collections.singleton(nodeId), 
+                this._virtualPoints);
+    }
+    
+    /**
+     * Method binds the node to the transport and starts its worker thread<br/>
+     */
+    public synchronized void start() {
+        this._worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "fsm-node-" + _id);
+            t.setDaemon(true);
+            return t;
+        });
+        if (this._lingerMillis > 0) {
+            this._flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "fsm-node-" + _id + "-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            this._flusher.scheduleWithFixedDelay(this::flush, _lingerMillis,
+                    _lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        this._transport.bind(this._id, this::receive);
+    }
+    
+    /**
+     * Method unbinds the node from the transport, once the traffic already
+     * received has been handled and sent on<br/>
+     * 
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        ExecutorService w;
+        synchronized (this) {
+            w = this._worker;
+            if (w == null) return;
+            this._worker = null;
+        }
+        this._transport.unbind(this._id);
+        w.execute(this::flush);
+        w.shutdown();
+        w.awaitTermination(1, TimeUnit.MINUTES);
+        if (this._flusher != null) this._flusher.shutdownNow();
+        flush();
+    }
+    
+    /**
+     * Method sets the members of the cluster, this node included as long as
+     * it is part of the cluster; instances of keys this node no longer owns
+     * are handed over to their new owner<br/>
+     * 
+     * @param members Identifiers of the member nodes
+     */
+    public void setMembers(Collection<String> members) {
+        final List<String> m = new ArrayList<String>(members);
+        final CompletableFuture<Void> landed = new CompletableFuture<Void>();
+        CompletableFuture<Void> previous = this._landed;
+        this._landed = landed;
+        previous.complete(null);
+        execute(() -> changeMembers(m, landed));
+    }
+    
+    /**
+     * Method waits until the instances of the keys this node gained by the
+     * last membership change have been handed over to it<br/>
+     * 
+     * @param timeout Maximum time to wait
+     * @param unit    Unit of the timeout
+     * @return true, if the handoffs have landed; false, on timeout
+     * @throws InterruptedException
+     */
+    public boolean awaitHandoffs(long timeout, TimeUnit unit) 
+            throws InterruptedException {
+        try {
+            this._landed.get(timeout, unit);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            return true;
+        }
+    }
+    
+    /**
+     * Method submits a message for the FSM instance of a key<br/>
+     * The future is completed once the owning node has processed the
+     * message; it is never completed if the message is dropped by the 
+     * transport.
+     * 
+     * @param key     Key of the FSM instance
+     * @param message Message to be processed
+     * @return Future result of the transition
+     */
+    public CompletableFuture<FSMTransitionResult> process(String key, 
+            String message) {
+        long id = this._ids.incrementAndGet();
+        CompletableFuture<FSMTransitionResult> f = 
+                new CompletableFuture<FSMTransitionResult>();
+        this._pending.put(id, f);
+        String owner = this._ring.owner(key);
+        enqueue(owner == null ? this._id : owner, 
+                FSMEnvelope.process(id, this._id, key, message));
+        if (this._lingerMillis <= 0) flush();
+        return f;
+    }
+    
+    /**
+     * Method sends all collected envelopes<br/>
+     */
+    public void flush() {
+        synchronized (this._outbox) {
+            for (Iterator<Map.Entry<String, ArrayList<FSMEnvelope>>> it = 
+                    this._outbox.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, ArrayList<FSMEnvelope>> e = it.next();
+                it.remove();
+                send(e.getKey(), e.getValue());
+            }
+        }
+    }
+    
+    /*
+     * Adds an envelope to the batch of its destination, sending the batch
+     * once full. Sending under the lock keeps batches of a destination in
+     * order.
+     */
+    private void enqueue(String nodeId, FSMEnvelope e) {
+        synchronized (this._outbox) {
+            ArrayList<FSMEnvelope> b = this._outbox.get(nodeId);
+            if (b == null) {
+                b = new ArrayList<FSMEnvelope>(this._batchSize);
+                this._outbox.put(nodeId, b);
+            }
+            b.add(e);
+            if (b.size() >= this._batchSize) {
+                this._outbox.remove(nodeId);
+                send(nodeId, b);
+            }
+        }
+    }
+    
+    private void send(String nodeId, List<FSMEnvelope> batch) {
+        this._batchesSent.incrementAndGet();
+        this._transport.send(nodeId, batch);
+    }
+    
+    /*
+     * Called by the transport; the batch is handled by the worker thread.
+     */
+    private void receive(final List<FSMEnvelope> batch) {
+        execute(() -> {
+            for (FSMEnvelope e : batch) handle(e);
+            flush();
+        });
+    }
+    
+    private void execute(Runnable r) {
+        ExecutorService w = this._worker;
+        try {
+            if (w != null) {
+                w.execute(r);
+                return;
+            }
+        } catch (RejectedExecutionException ex) {
+            /* Node is stopping; handle on the caller */
+        }
+        synchronized (this._instances) { r.run(); }
+    }
+    
+    private void handle(FSMEnvelope e) {
+        switch (e.getType()) {
+            case FSMEnvelope.PROCESS: {
+                String owner = this._ring.owner(e.getKey());
+                if (owner != null && !owner.equals(this._id)) {
+                    this._forwarded.incrementAndGet();
+                    enqueue(owner, e);
+                    return;
+                }
+                if (hold(e)) return;
+                FSMTransitionResult r;
+                try {
+                    r = processLocal(e.getKey(), e.getValue());
+                } catch (RuntimeException ex) {
+                    r = new FSMTransitionResult(e.getKey(), null, e.getValue(), 
+                            null, false);
+                }
+                if (r == null) {
+                    /* Handed over meanwhile */
+                    handle(e);
+                    return;
+                }
+                this._processed.incrementAndGet();
+                enqueue(e.getOrigin(), FSMEnvelope.result(e.getId(), r));
+                break;
+            }
+            case FSMEnvelope.RESULT: {
+                CompletableFuture<FSMTransitionResult> f = 
+                        this._pending.remove(e.getId());
+                if (f != null) f.complete(e.getResult());
+                break;
+            }
+            case FSMEnvelope.HANDOFF: {
+                /* The sender chose this node by the members it was given; 
+                   the instance is kept here, and moved on by the next 
+                   rebalance if this node was given other members since. 
+                   Messages for the key were held until now, so no other
+                   instance of it is here. */
+                FSM f = new FSM(this._definition, this._action);
+                f.setCurrentState(e.getValue());
+                if (e.getVariables() != null) {
+                    f.getVariables().copyFrom(e.getVariables());
+                }
+                this._instances.put(e.getKey(), f);
+                break;
+            }
+            case FSMEnvelope.HANDED_OFF: {
+                if (this._members != null && e.getId() == this._view) {
+                    if (this._awaited.remove(e.getOrigin())) release();
+                } else {
+                    /* Members not yet set here */
+                    HashSet<String> s = this._early.get(e.getId());
+                    if (s == null) {
+                        s = new HashSet<String>();
+                        this._early.put(e.getId(), s);
+                    }
+                    s.add(e.getOrigin());
+                }
+                break;
+            }
+        }
+    }
+    
+    private FSM instance(String key) {
+        return this._instances.computeIfAbsent(key, 
+                k -> new FSM(this._definition, this._action));
+    }
+    
+    /*
+     * Processes a message on the instance of a key, under the lock of the
+     * instance; null, if the instance was handed over meanwhile
+     */
+    private FSMTransitionResult processLocal(String key, String message) {
+        FSM f = instance(key);
+        synchronized (f) {
+            if (this._instances.get(key) != f) return null;
+            return f.process(message).withKey(key);
+        }
+    }
+    
+    /*
+     * Holds a message for a key this node gained, until its former owner
+     * is done handing over; returns true, iff held
+     */
+    private boolean hold(FSMEnvelope e) {
+        if (this._awaited.isEmpty() || this._instances.containsKey(e.getKey())) {
+            return false;
+        }
+        if (this._previous != null) {
+            /* Only the former owner of the key hands it over */
+            String owner = this._previous.owner(e.getKey());
+            if (owner == null || !this._awaited.contains(owner)) return false;
+        }
+        this._held.add(e);
+        return true;
+    }
+    
+    /*
+     * Handles again the held messages, once a member is done handing over
+     */
+    private void release() {
+        if (this._awaited.isEmpty() && this._change != null) this._change.complete(null);
+        if (this._held.isEmpty()) return;
+        ArrayList<FSMEnvelope> h = new ArrayList<FSMEnvelope>(this._held);
+        this._held.clear();
+        for (FSMEnvelope e : h) handle(e);
+    }
+    
+    /*
+     * Sets the members, hands over the instances of keys owned by another
+     * node, and tells the members this node is done
+     */
+    private void changeMembers(List<String> members, CompletableFuture<Void> landed) {
+        long view = view(members);
+        /* Instances are handed over by the former members; the members 
+           before the first change are not known */
+        this._awaited.clear();
+        for (String n : this._members == null ? members : this._members) {
+            if (!n.equals(this._id)) this._awaited.add(n);
+        }
+        HashSet<String> done = this._early.remove(view);
+        if (done != null) this._awaited.removeAll(done);
+        this._previous = this._members == null ? null : this._ring;
+        this._ring = new ConsistentHashRing(members, this._virtualPoints);
+        this._members = members;
+        this._view = view;
+        this._change = landed;
+        
+        for (Iterator<Map.Entry<String, FSM>> it = 
+                this._instances.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, FSM> e = it.next();
+            String owner = this._ring.owner(e.getKey());
+            if (owner != null && !owner.equals(this._id)) {
+                FSM f = e.getValue();
+                String state;
+                FSMVariables vars;
+                /* Snapshot once no message is being processed on it */
+                synchronized (f) {
+                    it.remove();
+                    state = f.getCurrentState();
+                    vars = f.getVariables();
+                }
+                this._handedOff.incrementAndGet();
+                enqueue(owner, FSMEnvelope.handoff(e.getKey(), state, vars));
+            }
+        }
+        for (String n : members) {
+            if (!n.equals(this._id)) enqueue(n, FSMEnvelope.handedOff(this._id, view));
+        }
+        flush();
+        release();
+    }
+    
+    /*
+     * Identifier of a set of members, the same on every node
+     */
+    private static long view(List<String> members) {
+        ArrayList<String> m = new ArrayList<String>(members);
+        Collections.sort(m);
+        StringBuilder b = new StringBuilder();
+        for (String n : m) b.append(n).append('\n');
+        return ConsistentHashRing.hash(b.toString());
+    }
+    
+    /**
+     * 
+     * @return Identifier of the node
+     */
+    public String getId() { return this._id; }
+    
+    /**
+     * 
+     * @return Number of FSM instances held by the node
+     */
+    public int getInstanceCount() { return this._instances.size(); }
+    
+    /**
+     * 
+     * @param key Key of a FSM instance
+     * @return Current state of the instance, if held by this node; else null
+     */
+    public String getState(String key) {
+        FSM f = this._instances.get(key);
+        return f == null ? null : f.getCurrentState();
+    }
+    
+    /**
+     * 
+     * @return Number of messages processed by the node
+     */
+    public long getProcessedCount() { return this._processed.get(); }
+    
+    /**
+     * 
+     * @return Number of messages forwarded to their owning node
+     */
+    public long getForwardedCount() { return this._forwarded.get(); }
+    
+    /**
+     * 
+     * @return Number of instances handed over to other nodes
+     */
+    public long getHandedOffCount() { return this._handedOff.get(); }
+    
+    /**
+     * 
+     * @return Number of batches sent by the node
+     */
+    public long getBatchCount() { return this._batchesSent.get(); }
+}
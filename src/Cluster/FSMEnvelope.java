@@ -0,0 +1,149 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Cluster;
+
+import States.FSMTransitionResult;
+import States.FSMVariables;
+
+/**
+ * Class holds a unit of traffic exchanged between cluster nodes<br/>
+ * 
+ * <ul>
+ *  <li>PROCESS carries a message for the FSM instance of a key.
+ *  <li>RESULT carries the result of a processed message back to the node
+ *      it was submitted on.
+ *  <li>HANDOFF moves the FSM instance of a key, by its current state and
+ *      the values of its extended-state variables, to the node now owning
+ *      the key.
+ *  <li>HANDED_OFF tells a member that the sending node has handed over
+ *      all the instances it no longer owns after a membership change.
+ * </ul>
+ * 
+ * @author ANKIT
+ */
+public class FSMEnvelope implements java.io.Serializable {
+    private static final long serialVersionUID = -6042118826640271913L;
+    
+    public static final int PROCESS = 0;
+    public static final int RESULT  = 1;
+    public static final int HANDOFF = 2;
+    public static final int HANDED_OFF = 3;
+    
+    private final int _type;
+    private final long _id;
+    private final String _origin;
+    private final String _key;
+    private final String _value;
+    private final FSMTransitionResult _result;
+    private final FSMVariables _variables;
+    
+    private FSMEnvelope(int type, long id, String origin, String key, 
+            String value, FSMTransitionResult result) {
+        this(type, id, origin, key, value, result, null);
+    }
+    
+    private FSMEnvelope(int type, long id, String origin, String key, 
+            String value, FSMTransitionResult result, FSMVariables variables) {
+        this._type = type;
+        this._id = id;
+        this._origin = origin;
+        this._key = key;
+        this._value = value;
+        this._result = result;
+        this._variables = variables;
+    }
+    
+    /**
+     * 
+     * @param id      Identifier of the request on its origin node
+     * @param origin  Node the message was submitted on
+     * @param key     Key of the FSM instance
+     * @param message Message to be processed
+     * @return Envelope of a message to be processed
+     */
+    public static FSMEnvelope process(long id, String origin, String key, 
+            String message) {
+        return new FSMEnvelope(PROCESS, id, origin, key, message, null);
+    }
+    
+    /**
+     * 
+     * @param id     Identifier of the request on its origin node
+     * @param result Result of the processed message
+     * @return Envelope of a result
+     */
+    public static FSMEnvelope result(long id, FSMTransitionResult result) {
+        return new FSMEnvelope(RESULT, id, null, null, null, result);
+    }
+    
+    /**
+     * 
+     * @param key   Key of the FSM instance
+     * @param state Current state of the FSM instance
+     * @param variables Values of the variables of the FSM instance; null,
+     *                  if its definition declares none
+     * @return Envelope of a moved FSM instance
+     */
+    public static FSMEnvelope handoff(String key, String state, 
+            FSMVariables variables) {
+        return new FSMEnvelope(HANDOFF, 0, null, key, state, null, variables);
+    }
+    
+    /**
+     * 
+     * @param origin Node which has handed its instances over
+     * @param view   Identifier of the members the handoffs were made for
+     * @return Envelope ending the handoffs of a node
+     */
+    public static FSMEnvelope handedOff(String origin, long view) {
+        return new FSMEnvelope(HANDED_OFF, view, origin, null, null, null);
+    }
+    
+    public int getType() { return this._type; }
+    
+    /**
+     * 
+     * @return Identifier of the request, or of the members of a HANDED_OFF
+     *         envelope
+     */
+    public long getId() { return this._id; }
+    
+    public String getOrigin() { return this._origin; }
+    
+    public String getKey() { return this._key; }
+    
+    /**
+     * 
+     * @return Message of a PROCESS envelope, or state of a HANDOFF envelope
+     */
+    public String getValue() { return this._value; }
+    
+    public FSMTransitionResult getResult() { return this._result; }
+    
+    /**
+     * 
+     * @return Values of the variables of a HANDOFF envelope; null, if none
+     */
+    public FSMVariables getVariables() { return this._variables; }
+}
@@ -0,0 +1,73 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Cluster;
+
+import java.util.List;
+
+/**
+ * Interface of the transport carrying traffic between cluster nodes<br/>
+ * 
+ * <p>
+ * Envelopes are always sent in batches. A transport shall deliver the
+ * batches sent to a node in the order they were sent.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public interface FSMTransport {
+    
+    /**
+     * Registers the receiver of batches sent to a node
+     * 
+     * @param nodeId  Identifier of the node
+     * @param handler Receiver of the batches
+     */
+    public void bind(String nodeId, Handler handler);
+    
+    /**
+     * Removes the receiver of a node; batches sent later are dropped
+     * 
+     * @param nodeId Identifier of the node
+     */
+    public void unbind(String nodeId);
+    
+    /**
+     * Sends a batch of envelopes to a node
+     * 
+     * @param nodeId Identifier of the destination node
+     * @param batch  Envelopes to be delivered
+     */
+    public void send(String nodeId, List<FSMEnvelope> batch);
+    
+    /**
+     * Interface of the receiver of batches
+     */
+    public interface Handler {
+        /**
+         * 
+         * @param batch Envelopes delivered to the node
+         */
+        public void receive(List<FSMEnvelope> batch);
+    }
+}
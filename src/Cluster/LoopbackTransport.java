@@ -0,0 +1,86 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Cluster;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class implements an in-process transport<br/>
+ * 
+ * Batches are handed to the receiving node directly, without any copy or
+ * serialization, so that a cluster of several nodes can be run and measured
+ * within one JVM.<br/>
+ * 
+ * @author ANKIT
+ */
+public class LoopbackTransport implements FSMTransport {
+    
+    private final ConcurrentHashMap<String, Handler> _handlers = 
+            new ConcurrentHashMap<String, Handler>();
+    private final AtomicLong _batches  = new AtomicLong();
+    private final AtomicLong _messages = new AtomicLong();
+    private final AtomicLong _dropped  = new AtomicLong();
+    
+    @Override
+    public void bind(String nodeId, Handler handler) {
+        this._handlers.put(nodeId, handler);
+    }
+    
+    @Override
+    public void unbind(String nodeId) {
+        this._handlers.remove(nodeId);
+    }
+    
+    @Override
+    public void send(String nodeId, List<FSMEnvelope> batch) {
+        Handler h = this._handlers.get(nodeId);
+        if (h == null) {
+            this._dropped.addAndGet(batch.size());
+            return;
+        }
+        this._batches.incrementAndGet();
+        this._messages.addAndGet(batch.size());
+        h.receive(batch);
+    }
+    
+    /**
+     * 
+     * @return Number of batches delivered
+     */
+    public long getBatchCount() { return this._batches.get(); }
+    
+    /**
+     * 
+     * @return Number of envelopes delivered
+     */
+    public long getMessageCount() { return this._messages.get(); }
+    
+    /**
+     * 
+     * @return Number of envelopes dropped as their node was not bound
+     */
+    public long getDroppedCount() { return this._dropped.get(); }
+}
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -59,15 +60,34 @@ public class CustomXMLReader implements java.io.Serializable {
     private InputStream _ConfigFileStream;
     private File fXmlFile = null;
     private Document doc = null;
+    /*
+     * Index of STATE elements keyed on their id; built on first lookup
+     */
+    private HashMap<String, Node> _stateIndex = null;
+    /*
+     * Element within which states are looked up; the document element,
+     * or one FSM element of a document holding several named FSMs
+     */
+    private Element root = null;
+    /*
+     * Readers of the named FSM definitions; created on first request
+     */
+    private HashMap<String, Object> _definitions = null;
     
     /*
      * Section to mark the tags to be read from
      * the XML Configuration file
      */
+    private final String __FsmTag       = "FSM";
+    private final String __NameTag      = "name";
     private final String __StateTag     = "STATE";
     private final String __IdTag        = "id";
     private final String __ActionTag    = "action";
     private final String __NextStateTag = "nextState";
+    private final String __VarTag       = "VAR";
+    private final String __TypeTag      = "type";
+    private final String __ValueTag     = "value";
+    private final String __ValuesTag    = "values";
     
     /**
      * 
@@ -83,6 +103,7 @@ public class CustomXMLReader implements java.io.Serializable {
 	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
         doc = dBuilder.parse(this.fXmlFile);
         doc.getDocumentElement().normalize();
+        root = doc.getDocumentElement();
     }
     
     /**
@@ -98,6 +119,81 @@ public class CustomXMLReader implements java.io.Serializable {
 	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
         doc = dBuilder.parse(this._ConfigFileStream);
         doc.getDocumentElement().normalize();
+        root = doc.getDocumentElement();
+    }
+
+    /*
+     * Creates a reader restricted to one FSM element of an already
+     * parsed document.
+     */
+    private CustomXMLReader(CustomXMLReader parent, Element fsm) {
+        this._ConfigFileName = parent._ConfigFileName;
+        this.doc = parent.doc;
+        this.root = fsm;
+    }
+
+    /*
+     * Expected XML Format, for several FSMs within one document
+     * <FSMS>
+     *  <FSM name="fsm01">
+     *      <STATE id="state"> ... </STATE>
+     *  </FSM>
+     *  <FSM name="fsm02">
+     *      <STATE id="state"> ... </STATE>
+     *  </FSM>
+     * </FSMS>
+     */
+
+    /**
+     * 
+     * @return Names of the FSM definitions within the document
+     */
+    public ArrayList<String> getDefinitionNames() {
+        return new ArrayList<String>(getDefinitionIndex().keySet());
+    }
+
+    /**
+     * 
+     * @param name Name of the FSM definition
+     * @return Reader restricted to the named FSM; null, if no such FSM exists
+     */
+    public CustomXMLReader getDefinition(String name) {
+        synchronized (this.doc) {
+            HashMap<String, Object> _i = getDefinitionIndex();
+            Object _d = _i.get(name);
+            if (_d instanceof Element) {
+                _d = new CustomXMLReader(this, (Element) _d);
+                _i.put(name, _d);
+            }
+            return (CustomXMLReader) _d;
+        }
+    }
+
+    /*
+     * Builds the index of named FSM elements once, in document order. The
+     * FSM element is replaced by its reader once the definition is requested.
+     * Readers of the named FSMs share the document, and thus its lock.
+     */
+    private HashMap<String, Object> getDefinitionIndex() {
+        synchronized (this.doc) {
+            if (this._definitions == null) {
+                HashMap<String, Object> _i = new LinkedHashMap<String, Object>();
+                if (this.__FsmTag.equals(this.root.getTagName()) &&
+                    this.root.hasAttribute(this.__NameTag)) {
+                    _i.put(this.root.getAttribute(this.__NameTag), this.root);
+                }
+                NodeList nList = this.root.getElementsByTagName(this.__FsmTag);
+                for (int temp = 0; temp < nList.getLength(); temp++) {
+                    Node nNode = nList.item(temp);
+                    if (nNode.getNodeType() == Node.ELEMENT_NODE &&
+                        ((Element)nNode).hasAttribute(this.__NameTag)) {
+                        _i.put(((Element)nNode).getAttribute(this.__NameTag), nNode);
+                    }
+                }
+                this._definitions = _i;
+            }
+            return this._definitions;
+        }
     }
 
     /*
@@ -109,7 +205,15 @@ public class CustomXMLReader implements java.io.Serializable {
      *      <MESSAGE id="message02" action="action02" nextState="next02">
      *      </MESSAGE>
      *  </STATE>
+     *  <STATE id="*">
+     *      <MESSAGE id="message03" action="action03" nextState="next03">
+     *      </MESSAGE>
+     *      <MESSAGE id="*" action="action04" nextState="next04">
+     *      </MESSAGE>
+     *  </STATE>
      * </FSM>
+     * A STATE of id "*" holds transitions valid in any state; a MESSAGE of
+     * id "*" is taken on any message having no transition of its own.
      */
     
     /**
@@ -117,8 +221,14 @@ public class CustomXMLReader implements java.io.Serializable {
      * @return
      */
     public ArrayList getStates() {
+        synchronized (this.doc) {
+            return states();
+        }
+    }
+    
+    private ArrayList states() {
         ArrayList _a = new ArrayList();
-        NodeList nList = this.doc.getElementsByTagName(this.__StateTag);
+        NodeList nList = this.root.getElementsByTagName(this.__StateTag);
         for (int temp = 0; temp < nList.getLength(); temp++) {
             Node nNode = nList.item(temp);
             if (nNode.getNodeType() == Node.ELEMENT_NODE) {
@@ -128,23 +238,75 @@ public class CustomXMLReader implements java.io.Serializable {
         return _a;
     }
     
+    /*
+     * Expected XML Format of extended-state variables, declared within
+     * the FSM element
+     * <FSM>
+     *  <VAR id="retries" type="int" value="0"/>
+     *  <VAR id="level" type="enum" values="LOW,MID,HIGH" value="LOW"/>
+     *  <STATE id="state"> ... </STATE>
+     * </FSM>
+     */
+
     /**
      * 
-     * @param stateId
-     * @return
+     * @return List of {id, type, value, values} arrays of the variables
+     *         declared by the FSM, in document order
      */
-    public Node getStateNode(String stateId) {
-        Node _a = null;
-        NodeList nList = this.doc.getElementsByTagName(this.__StateTag);
+    public ArrayList<String[]> getVariables() {
+        synchronized (this.doc) {
+            return variables();
+        }
+    }
+    
+    private ArrayList<String[]> variables() {
+        ArrayList<String[]> _a = new ArrayList<String[]>();
+        NodeList nList = this.root.getChildNodes();
         for (int temp = 0; temp < nList.getLength(); temp++) {
             Node nNode = nList.item(temp);
             if (nNode.getNodeType() == Node.ELEMENT_NODE &&
-               ((Element)nNode).getAttribute("id").equals(stateId)) {
-                _a = nNode;
+                this.__VarTag.equals(((Element)nNode).getTagName())) {
+                Element e = (Element)nNode;
+                _a.add(new String[] {
+                       e.getAttribute(this.__IdTag),
+                       e.getAttribute(this.__TypeTag),
+                       e.getAttribute(this.__ValueTag),
+                       e.getAttribute(this.__ValuesTag)});
             }
         }
         return _a;
     }
+    
+    /**
+     * 
+     * @param stateId
+     * @return
+     */
+    public Node getStateNode(String stateId) {
+        return getStateIndex().get(stateId);
+    }
+
+    /*
+     * Builds the index of STATE elements once, so that a lookup does not
+     * need to walk every STATE of the document. As earlier, the last STATE
+     * element wins when an id is repeated.
+     */
+    private HashMap<String, Node> getStateIndex() {
+        synchronized (this.doc) {
+            if (this._stateIndex == null) {
+                HashMap<String, Node> _i = new HashMap<String, Node>();
+                NodeList nList = this.root.getElementsByTagName(this.__StateTag);
+                for (int temp = 0; temp < nList.getLength(); temp++) {
+                    Node nNode = nList.item(temp);
+                    if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+                        _i.put(((Element)nNode).getAttribute(this.__IdTag), nNode);
+                    }
+                }
+                this._stateIndex = _i;
+            }
+            return this._stateIndex;
+        }
+    }
 
     /**
      * 
@@ -152,7 +314,18 @@ public class CustomXMLReader implements java.io.Serializable {
      * @return
      */
     public HashMap getStateInfo(String StateId) {
-        HashMap _m = new HashMap();
+        synchronized (this.doc) {
+            return stateInfo(StateId);
+        }
+    }
+    
+    /*
+     * The DOM is not safe for concurrent reads, even of distinct elements;
+     * readers of one document walk it under the lock of the document, as
+     * lazily loaded states may be reached by several threads at once.
+     */
+    private HashMap<String, String> stateInfo(String StateId) {
+        HashMap<String, String> _m = new HashMap<String, String>();
         Element element = (Element)getStateNode(StateId);
         if( element == null) return _m;
         NodeList nList = element.getChildNodes();
@@ -167,4 +340,69 @@ public class CustomXMLReader implements java.io.Serializable {
         }
         return _m;
     }
+
+    /**
+     * Method returns the transitions of a state in document order, keeping
+     * every MESSAGE element; unlike {@link #getStateInfo(String)}, a message
+     * listed several times yields several transitions.<br/>
+     * 
+     * @param StateId
+     * @return List of {message, action, nextState} arrays
+     */
+    public ArrayList<String[]> getStateTransitions(String StateId) {
+        synchronized (this.doc) {
+            return stateTransitions(StateId);
+        }
+    }
+    
+    private ArrayList<String[]> stateTransitions(String StateId) {
+        ArrayList<String[]> _a = new ArrayList<String[]>();
+        Element element = (Element)getStateNode(StateId);
+        if( element == null) return _a;
+        NodeList nList = element.getChildNodes();
+        for (int temp = 0; temp < nList.getLength(); temp++) {
+            Node nNode = nList.item(temp);
+            if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+                _a.add(new String[] {
+                       ((Element)nNode).getAttribute(this.__IdTag), 
+                       ((Element)nNode).getAttribute(this.__ActionTag),
+                       ((Element)nNode).getAttribute(this.__NextStateTag)});
+            }
+        }
+        return _a;
+    }
+
+    /**
+     * Method returns the transitions of every state in compact form, read
+     * in a single walk of the document; states built from them do not
+     * keep the document, which can then be released.<br/>
+     * As by {@link #getStateInfo(String)}, the last STATE element of an id
+     * wins.<br/>
+     * 
+     * @return Map of state id to its {message, action, nextState, ...} 
+     *         triples, in document order
+     */
+    public HashMap<String, String[]> getStateTable() {
+        synchronized (this.doc) {
+            HashMap<String, String[]> _m = new HashMap<String, String[]>();
+            NodeList nList = this.root.getElementsByTagName(this.__StateTag);
+            for (int temp = 0; temp < nList.getLength(); temp++) {
+                Node nNode = nList.item(temp);
+                if (nNode.getNodeType() != Node.ELEMENT_NODE) continue;
+                ArrayList<String> _a = new ArrayList<String>();
+                NodeList cList = nNode.getChildNodes();
+                for (int c = 0; c < cList.getLength(); c++) {
+                    Node cNode = cList.item(c);
+                    if (cNode.getNodeType() == Node.ELEMENT_NODE) {
+                        _a.add(((Element)cNode).getAttribute(this.__IdTag));
+                        _a.add(((Element)cNode).getAttribute(this.__ActionTag));
+                        _a.add(((Element)cNode).getAttribute(this.__NextStateTag));
+                    }
+                }
+                _m.put(((Element)nNode).getAttribute(this.__IdTag), 
+                       _a.toArray(new String[_a.size()]));
+            }
+            return _m;
+        }
+    }
 }
@@ -24,15 +24,31 @@
 package FSM;
 
 import Action.FSMAction;
+import Action.FSMVariableAction;
+import States.FSMDefinition;
+import States.FSMDefinitions;
 import States.FSMState;
 import States.FSMStateAction;
 import States.FSMStates;
 import States.FSMTransitionInfo;
+import States.FSMTransitionResult;
+import States.FSMTransitionTable;
+import States.FSMVariables;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 
@@ -83,7 +99,7 @@ import org.xml.sax.SAXException;
 public class FSM implements java.io.Serializable {
     
     /* Added to support Serializability */
-    private static final long serialVersionUID = -4817986591227138567L;
+    private static final long serialVersionUID = 6455214815043208313L;
     
     /*
      * Any FSM requires three things:
@@ -91,9 +107,40 @@ public class FSM implements java.io.Serializable {
      * * Messages
      * * Actions
      */
-    private FSMStates _fsm;
+    private transient FSMStates _fsm;
     private transient FSMAction _action;
     private transient Object _sharedData;
+    /*
+     * Lock serializing transitions; set only in concurrent mode
+     */
+    private transient ReentrantLock _lock;
+    /*
+     * Watchdog of transitions exceeding their budget, and bulkhead running
+     * actions; null, if not set
+     */
+    private transient FSMWatchdog _watchdog;
+    private transient long _budget;
+    private transient FSMBulkhead _bulkhead;
+    private transient long _timeout;
+    /*
+     * Listener of state changes; null, if not set
+     */
+    private transient FSMTransitionListener _listener;
+    /*
+     * Cache of processed idempotency keys; null, if not set
+     */
+    private transient FSMDedupCache _dedup;
+    /*
+     * Futures waiting for the FSM to reach a state; created on first wait
+     */
+    private transient volatile ConcurrentHashMap<FSMState, 
+            ConcurrentLinkedQueue<CompletableFuture<String>>> _waiters;
+    /*
+     * State committed into by the running transition, if futures may wait
+     * for it; they are completed once the transition has returned and the
+     * lock is released
+     */
+    private transient FSMState _reached;
     
     /**
      * Constructor allows to create a FSM from a specified file-name<br/>
@@ -210,6 +257,85 @@ public class FSM implements java.io.Serializable {
             throws ParserConfigurationException, SAXException, IOException {
         this(configFStream, action, null);
     }
+
+    /**
+     * Constructor allows to create a FSM from already loaded states<br/>
+     * and specified Actions along with Shared data<br/>
+     * This allows the states to be loaded in a specific mode; for example,
+     * lazily for huge configurations.<br/>
+     * 
+     * @param states    States of the FSM
+     * @param action    Specified actions for the given FSM
+     * @param sharedData Shared Data passed across in FSM
+     */
+    public FSM(FSMStates states, FSMAction action, Object sharedData) {
+        this._fsm = states;
+        this._action = action;
+        this._sharedData = sharedData;
+    }
+
+    /**
+     * Constructor allows to create a FSM from already loaded states<br/>
+     * and specified Actions<br/>
+     * 
+     * @param states    States of the FSM
+     * @param action    Specified actions for the given FSM
+     */
+    public FSM(FSMStates states, FSMAction action) {
+        this(states, action, null);
+    }
+
+    /**
+     * Constructor allows to create a FSM from a shared definition<br/>
+     * and specified Actions along with Shared data<br/>
+     * States and actions bound to them are shared with all FSMs created
+     * from the same definition; only the current state is specific to
+     * this FSM.<br/>
+     * 
+     * @param definition Definition of the FSM
+     * @param action    Specified actions for the given FSM
+     * @param sharedData Shared Data passed across in FSM
+     */
+    public FSM(FSMDefinition definition, FSMAction action, Object sharedData) {
+        this(new FSMStates(definition), action, sharedData);
+    }
+
+    /**
+     * Constructor allows to create a FSM from a shared definition<br/>
+     * and specified Actions<br/>
+     * 
+     * @param definition Definition of the FSM
+     * @param action    Specified actions for the given FSM
+     */
+    public FSM(FSMDefinition definition, FSMAction action) {
+        this(definition, action, null);
+    }
+
+    /**
+     * Constructor allows to create a FSM from one of the named definitions<br/>
+     * of a XML Configuration holding several FSMs<br/>
+     * 
+     * @param definitions Index of the named definitions
+     * @param name      Name of the FSM to be created
+     * @param action    Specified actions for the given FSM
+     * 
+     * @throws IllegalArgumentException if no FSM of the given name exists
+     */
+    public FSM(FSMDefinitions definitions, String name, FSMAction action) {
+        this(lookup(definitions, name), action, null);
+    }
+
+    /*
+     * Returns the named definition; fails if it does not exist
+     */
+    private static FSMDefinition lookup(FSMDefinitions definitions, String name) {
+        FSMDefinition _d = definitions.getDefinition(name);
+        if (_d == null) {
+            throw new IllegalArgumentException("No FSM named " + name);
+        }
+        return _d;
+    }
+
     /**
      * Method on receiving the Message Id, takes appropriate action<br/>
      * and on successful execution of the action Transitions to the new-state<br/>
@@ -220,68 +346,278 @@ public class FSM implements java.io.Serializable {
      * @return Returns the Current State as String
      */
     public Object ProcessFSM(String recvdMsgId) {
-        Object _r;
-        _r = this._fsm.getCurrentState().getNewTransitionMap().get(recvdMsgId);
+        return process(recvdMsgId).getTransition();
+    }
+
+    /**
+     * Method on receiving the Message Id, takes appropriate action<br/>
+     * and on successful execution of the action Transitions to the new-state<br/>
+     * as per the transition map, reporting the outcome of the transition.<br/>
+     * 
+     * @param recvdMsgId Received Message Id
+     * 
+     * @return Returns the result of the transition
+     */
+    public FSMTransitionResult process(String recvdMsgId) {
+        return process(recvdMsgId, this._sharedData);
+    }
+
+    /**
+     * Method processes a message along with a payload of its own<br/>
+     * The payload is passed, in place of the shared data, as the argument
+     * of the entry, action, afterTransition and exit methods and of the 
+     * state hooks run for this message only; it is neither copied nor kept.
+     * Threads sending messages with payloads thus need not serialize on 
+     * {@link #setShareData}.<br/>
+     * 
+     * @param recvdMsgId Received Message Id
+     * @param payload Data of this message; can be null
+     * 
+     * @return Returns the result of the transition
+     */
+    public FSMTransitionResult process(String recvdMsgId, Object payload) {
+        ReentrantLock l = this._lock;
+        if (l != null) l.lock();
+        try {
+            return transition(recvdMsgId, payload);
+        } finally {
+            FSMState _to = this._reached;
+            this._reached = null;
+            if (l != null) l.unlock();
+            if (_to != null) reached(_to);
+        }
+    }
+
+    /**
+     * Method processes a message bearing an idempotency key<br/>
+     * A message whose key was already processed is not processed again: 
+     * it is answered with the result of its first delivery, without any
+     * action being run. Keys are remembered by the cache set by 
+     * {@link #setDedupCache}; without a cache, or a key, the message is
+     * processed as by {@link #process(String)}. A message whose actions
+     * throw is not remembered, and is processed again when redelivered.<br/>
+     * 
+     * @param idempotencyKey Key identifying the message across deliveries
+     * @param recvdMsgId Received Message Id
+     * 
+     * @return Returns the result of the transition
+     */
+    public FSMTransitionResult processOnce(String idempotencyKey, String recvdMsgId) {
+        return processOnce(idempotencyKey, recvdMsgId, this._sharedData);
+    }
+
+    /**
+     * Method processes a message bearing an idempotency key, along with a
+     * payload of its own, as by {@link #processOnce(String, String)} and 
+     * {@link #process(String, Object)}<br/>
+     * 
+     * @param idempotencyKey Key identifying the message across deliveries
+     * @param recvdMsgId Received Message Id
+     * @param payload Data of this message; can be null
+     * 
+     * @return Returns the result of the transition
+     */
+    public FSMTransitionResult processOnce(String idempotencyKey, String recvdMsgId,
+            Object payload) {
+        FSMDedupCache c = this._dedup;
+        if (c == null || idempotencyKey == null) return process(recvdMsgId, payload);
+        ReentrantLock l = this._lock;
+        if (l != null) l.lock();
+        try {
+            long h = FSMDedupCache.hash(idempotencyKey);
+            FSMTransitionResult r = c.get(h, getDefinition(), recvdMsgId);
+            if (r == null) {
+                r = transition(recvdMsgId, payload);
+                c.put(h, r, getDefinition());
+            }
+            return r;
+        } finally {
+            FSMState _to = this._reached;
+            this._reached = null;
+            if (l != null) l.unlock();
+            if (_to != null) reached(_to);
+        }
+    }
+
+    /**
+     * Method sets the cache of idempotency keys used by 
+     * {@link #processOnce}<br/>
+     * A cache can be shared by FSMs of the same definition.<br/>
+     * 
+     * @param cache Cache; null, to process every message
+     */
+    public void setDedupCache(FSMDedupCache cache) { this._dedup = cache; }
+
+    /*
+     * Looks up the transition of the message in the current state, runs
+     * the actions, passing them args, and commits the transition on success.
+     */
+    private FSMTransitionResult transition(String recvdMsgId, Object args) {
+        String _from = this._fsm.getCurrentState().getCurrentState();
+        FSMTransitionInfo _r;
+        _r = this._fsm.getTransition(recvdMsgId);
+        boolean committed = false;
         if ( null != _r) {
-            String[] _t = new String[2];
-            _t[0] = ((FSMTransitionInfo)_r).getActionName();
-            _t[1] = ((FSMTransitionInfo)_r).getNextState();
-            boolean status = true;
-            for (Object _f: this._fsm.getAllStates()) {
-                if( ((FSMState)_f).getCurrentState().equals((String)_t[1])) {
-                    /* Check if the action specific to each message exists
-                       If not, then in this case call the generic action function
-                    */
-                    FSMStateAction _a = ((FSMState)_f).getBeforeTransition();
-                    if (_a!=null) {
-                        _a.stateTransition(((FSMState)_f).getCurrentState(), 
-                                this._sharedData);
-                    }
-                    
-                    FSMAction act = ((FSMTransitionInfo)_r).getAction();
-                    if (act!=null) {
-                        /* If customized action is declared, call an entry function */
-                        act.entry(this._fsm.getCurrentState().getCurrentState(), 
-                                (String)_t[0], (String)_t[1], this._sharedData);
-                        status = act.action(this._fsm.getCurrentState().getCurrentState(), 
-                                (String)_t[0], (String)_t[1], this._sharedData);
-                    } else if ( null != this._action) {
-                        status = 
-                        this._action.action(this._fsm.getCurrentState().getCurrentState(), 
-                                (String)_t[0], (String)_t[1], this._sharedData);
-                    }
-                    
-                    if(status) {
-                        this._fsm.setCurrentState((FSMState)_f);
-                        
-                        if (act!=null) {
-                            act.afterTransition(this._fsm.getCurrentState().getCurrentState(), 
-                                (String)_t[0], (String)_t[1], this._sharedData);
-                        }else if ( null != this._action) {
-                            this._action.afterTransition(this._fsm.getCurrentState().getCurrentState(), 
-                                    (String)_t[0], (String)_t[1], this._sharedData);
-                        }
-                    }
-
-                    if (act!=null) {
-                        /* Exit function called irrespective of transition status */
-                        act.exit(this._fsm.getCurrentState().getCurrentState(), 
-                                (String)_t[0], (String)_t[1], this._sharedData);
-                    }
-                    
-                    FSMStateAction _b = ((FSMState)_f).getAfterTransition();
-                    if (_b!=null) {
-                        _b.stateTransition(((FSMState)_f).getCurrentState(), 
-                                this._sharedData);
-                    }
-                    
-                    break;
+            FSMWatchdog _d = this._watchdog;
+            FSMWatchdog.Transition _w = _d == null ? null : 
+                    _d.begin(this, _from, recvdMsgId, this._budget);
+            try {
+                committed = run(_r, _w, args);
+            } finally {
+                if (_w != null) _d.end(_w);
+            }
+        }
+        return new FSMTransitionResult(_from, recvdMsgId, _r, committed);
+    }
+
+    /*
+     * Runs the callbacks of a transition, and commits it on success
+     */
+    private boolean run(FSMTransitionInfo _r, FSMWatchdog.Transition _w, 
+            Object args) {
+        boolean committed = false;
+        String[] _t = new String[2];
+        _t[0] = _r.getActionName();
+        _t[1] = _r.getNextState();
+        boolean status = true;
+        FSMState _f = this._fsm.getState(_t[1]);
+        if (_f != null) {
+            /* Check if the action specific to each message exists
+               If not, then in this case call the generic action function
+            */
+            FSMStateAction _a = _f.getBeforeTransition();
+            if (_a!=null) {
+                enter(_w, "before");
+                _a.stateTransition(_f.getCurrentState(), args);
+            }
+            
+            FSMAction act = _r.getAction();
+            if (act!=null || null != this._action) {
+                enter(_w, "action");
+                status = act(act, _w, this._fsm.getCurrentState().getCurrentState(), 
+                        (String)_t[0], (String)_t[1], args);
+            }
+            
+            if(status) {
+                FSMState _from = this._fsm.getCurrentState();
+                this._fsm.setCurrentState(_f);
+                committed = true;
+                changed(_from, _f);
+                if (this._waiters != null) this._reached = _f;
+                
+                enter(_w, "afterTransition");
+                if (act!=null) {
+                    act.afterTransition(this._fsm.getCurrentState().getCurrentState(), 
+                        (String)_t[0], (String)_t[1], args);
+                }else if ( null != this._action) {
+                    this._action.afterTransition(this._fsm.getCurrentState().getCurrentState(), 
+                            (String)_t[0], (String)_t[1], args);
                 }
             }
+
+            if (act!=null) {
+                /* Exit function called irrespective of transition status */
+                enter(_w, "exit");
+                act.exit(this._fsm.getCurrentState().getCurrentState(), 
+                        (String)_t[0], (String)_t[1], args);
+            }
+            
+            FSMStateAction _b = _f.getAfterTransition();
+            if (_b!=null) {
+                enter(_w, "after");
+                _b.stateTransition(_f.getCurrentState(), args);
+            }
+        }
+        return committed;
+    }
+
+    private static void enter(FSMWatchdog.Transition w, String callback) {
+        if (w != null) w.enter(callback);
+    }
+
+    /*
+     * Runs the action of a transition, on the bulkhead if one is set. If
+     * customized action is declared, an entry function is called first.
+     */
+    private boolean act(final FSMAction act, final FSMWatchdog.Transition _w,
+            final String curState, final String action, final String nextState, 
+            final Object args) {
+        FSMBulkhead _h = this._bulkhead;
+        if (_h == null) return invoke(act, _w, curState, action, nextState, args);
+        return _h.run(() -> invoke(act, _w, curState, action, nextState, args), 
+                this._timeout);
+    }
+
+    private boolean invoke(FSMAction act, FSMWatchdog.Transition _w, 
+            String curState, String action, String nextState, Object args) {
+        if (act != null) {
+            enter(_w, "entry");
+            act.entry(curState, action, nextState, args);
+            enter(_w, "action");
+        } else {
+            act = this._action;
+        }
+        /* A batched action is told the FSM its entry belongs to */
+        if (act instanceof FSMActionBatcher) {
+            return ((FSMActionBatcher) act).action(this, curState, action, 
+                    nextState, args);
         }
-        return _r;
+        if (act instanceof FSMVariableAction) {
+            return ((FSMVariableAction) act).action(curState, action, 
+                    nextState, this._fsm.getVariables(), args);
+        }
+        return act.action(curState, action, nextState, args);
+    }
+
+    /**
+     * Method gives each transition of the FSM a time budget, watched by
+     * the watchdog<br/>
+     * A transition, its actions and hooks included, running longer than
+     * the budget is reported by the watchdog; it is not interrupted.<br/>
+     * 
+     * @param budget Time budget of a transition
+     * @param unit Unit of the budget
+     * @param watchdog Watchdog; null, to stop watching transitions
+     */
+    public void setTimeBudget(long budget, TimeUnit unit, FSMWatchdog watchdog) {
+        this._budget = unit.toNanos(budget);
+        this._watchdog = watchdog;
+    }
+
+    /**
+     * Method runs the actions of the FSM on a bulkhead<br/>
+     * An action not completed within the timeout, or not run as the 
+     * bulkhead is full, is taken as failed: the transition is not made. 
+     * The entry and action methods of the action run on the bulkhead; the
+     * other callbacks run on the caller's thread.<br/>
+     * 
+     * @param bulkhead Bulkhead; null, to run actions on the caller's thread
+     * @param timeout Time an action is waited for
+     * @param unit Unit of the timeout
+     */
+    public void setBulkhead(FSMBulkhead bulkhead, long timeout, TimeUnit unit) {
+        this._timeout = unit.toNanos(timeout);
+        this._bulkhead = bulkhead;
+    }
+
+    /**
+     * Method sets the FSM in concurrent mode, in which messages can be
+     * processed by several threads at once<br/>
+     * Transitions, their actions included, are then run one at a time. This 
+     * shall be set before the FSM is shared between threads.<br/>
+     * 
+     * @param concurrent true, to enable concurrent mode
+     */
+    public void setConcurrent(boolean concurrent) {
+        this._lock = concurrent ? new ReentrantLock() : null;
     }
 
+    /**
+     * 
+     * @return true, iff FSM is in concurrent mode
+     */
+    public boolean isConcurrent() { return this._lock != null; }
+
     /**
      * Method returns the current state of the FSM<br/>
      * 
@@ -289,15 +625,202 @@ public class FSM implements java.io.Serializable {
      */
     public String getCurrentState() { return this._fsm.getCurrentState().getCurrentState(); }
     
+    /**
+     * Method sets the current state of the FSM without taking any action<br/>
+     * Meant to restore a FSM whose state was saved or moved elsewhere.<br/>
+     * 
+     * @param state Name of the state
+     * @throws IllegalArgumentException if no such state exists
+     */
+    public void setCurrentState(String state) {
+        FSMState _s = this._fsm.getState(state);
+        if (_s == null) {
+            throw new IllegalArgumentException("No state named " + state);
+        }
+        moveTo(_s);
+    }
+
+    /*
+     * Sets the current state, telling the listener
+     */
+    private void moveTo(FSMState state) {
+        FSMState _from = this._fsm.getCurrentState();
+        this._fsm.setCurrentState(state);
+        changed(_from, state);
+        reached(state);
+    }
+
+    /*
+     * Tells the listener of the new state
+     */
+    private void changed(FSMState from, FSMState to) {
+        if (this._listener != null) this._listener.stateChanged(this, from, to);
+    }
+
+    /*
+     * Completes the futures waiting for a state
+     */
+    private void reached(FSMState state) {
+        ConcurrentHashMap<FSMState, ConcurrentLinkedQueue<CompletableFuture<String>>> 
+                _w = this._waiters;
+        if (_w != null) {
+            ConcurrentLinkedQueue<CompletableFuture<String>> _q = _w.get(state);
+            if (_q != null) {
+                CompletableFuture<String> f;
+                while ((f = _q.poll()) != null) f.complete(state.getCurrentState());
+            }
+        }
+    }
+
+    /**
+     * Method returns a future completed when the FSM is in a state<br/>
+     * The future is completed at once if the FSM is in the state, else by
+     * the thread committing the transition into it, once the transition,
+     * its after-transition methods and hooks included, has returned and the
+     * lock of the FSM is released; functions depending on the future may 
+     * hence process messages on the FSM. A waiting future costs no thread;
+     * one cancelled is forgotten.<br/>
+     * 
+     * @param state Name of the state
+     * @return Future completed with the name of the state
+     * @throws IllegalArgumentException if no such state exists
+     */
+    public CompletableFuture<String> onState(String state) {
+        final FSMState _s = this._fsm.getState(state);
+        if (_s == null) {
+            throw new IllegalArgumentException("No state named " + state);
+        }
+        final CompletableFuture<String> f = new CompletableFuture<String>();
+        if (this._fsm.getCurrentState() == _s) {
+            f.complete(_s.getCurrentState());
+            return f;
+        }
+        ConcurrentHashMap<FSMState, ConcurrentLinkedQueue<CompletableFuture<String>>> 
+                _w = this._waiters;
+        if (_w == null) {
+            synchronized (this) {
+                if ((_w = this._waiters) == null) {
+                    this._waiters = _w = new ConcurrentHashMap<FSMState, 
+                            ConcurrentLinkedQueue<CompletableFuture<String>>>();
+                }
+            }
+        }
+        final ConcurrentLinkedQueue<CompletableFuture<String>> _q = 
+                _w.computeIfAbsent(_s, k -> new ConcurrentLinkedQueue<CompletableFuture<String>>());
+        _q.add(f);
+        /* The state may have been reached before the future was queued */
+        if (this._fsm.getCurrentState() == _s && _q.remove(f)) {
+            f.complete(_s.getCurrentState());
+        }
+        f.whenComplete((v, e) -> { if (e != null) _q.remove(f); });
+        return f;
+    }
+
+    /**
+     * Method waits until the FSM is in a state<br/>
+     * The waiting thread is parked, and woken by the thread committing the
+     * transition into the state.<br/>
+     * 
+     * @param state Name of the state
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @return true, if the FSM reached the state; false, on timeout
+     * @throws InterruptedException if the waiting thread is interrupted
+     * @throws IllegalArgumentException if no such state exists
+     */
+    public boolean awaitState(String state, long timeout, TimeUnit unit) 
+            throws InterruptedException {
+        CompletableFuture<String> f = onState(state);
+        try {
+            f.get(timeout, unit);
+            return true;
+        } catch (TimeoutException ex) {
+            f.cancel(false);
+            return f.isDone() && !f.isCancelled();
+        } catch (InterruptedException ex) {
+            f.cancel(false);
+            throw ex;
+        } catch (ExecutionException ex) {
+            return false;
+        }
+    }
+    
     /**
      * Method sets the shared data for the FSM<br/>
-     * This method overwrites the previous shared data<br/>
+     * This method overwrites the previous shared data; data of a single
+     * message is better passed by {@link #process(String, Object)}<br/>
      * 
      * @param data  Set shared data for the FSM.<br/>
      *              <b>Note:</b> Call to this function overwrites any previous shared data.
      */
     public void setShareData(Object data) { this._sharedData = data; }
     
+    /**
+     * Method returns the FSM to its initial state, and its extended-state
+     * variables to their initial values, and clears its shared data<br/>
+     * Actions bound to the states are kept, so that an instance can be
+     * reused instead of being created again.<br/>
+     */
+    public void reset() {
+        moveTo(getDefinition().getInitialState());
+        FSMVariables _v = this._fsm.getVariables();
+        if (_v != null) _v.reset();
+        this._sharedData = null;
+    }
+
+    /*
+     * Forgets the listener, which is told, the cache of idempotency keys 
+     * and the futures waiting for a state, which are cancelled; run on 
+     * release to a pool, so that none of them outlives the user who set it
+     */
+    void detach() {
+        FSMTransitionListener _l = this._listener;
+        this._listener = null;
+        if (_l != null) _l.detached(this);
+        this._dedup = null;
+        ConcurrentHashMap<FSMState, ConcurrentLinkedQueue<CompletableFuture<String>>> 
+                _w = this._waiters;
+        if (_w != null) {
+            for (ConcurrentLinkedQueue<CompletableFuture<String>> _q : _w.values()) {
+                CompletableFuture<String> f;
+                while ((f = _q.poll()) != null) f.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Method returns the values of the extended-state variables of the 
+     * FSM<br/>
+     * They are read and written through the accessors of the definition,
+     * looked up once by {@link FSMDefinition#getVariable(String)}; actions
+     * extending {@link FSMVariableAction} are passed them.<br/>
+     * 
+     * @return Values of the variables; null, if the definition declares none
+     */
+    public FSMVariables getVariables() { return this._fsm.getVariables(); }
+
+    /**
+     * Method sets the listener of the state changes of the FSM<br/>
+     * 
+     * @param listener Listener; null, to remove it
+     */
+    public void setTransitionListener(FSMTransitionListener listener) {
+        this._listener = listener;
+    }
+
+    /**
+     * 
+     * @return Listener of the state changes; null, if none
+     */
+    public FSMTransitionListener getTransitionListener() { return this._listener; }
+    
+    /**
+     * Method returns the definition holding the states of the FSM<br/>
+     * 
+     * @return Definition of the FSM
+     */
+    public FSMDefinition getDefinition() { return this._fsm.getDefinition(); }
+    
     /**
      *
      * @param states
@@ -329,6 +852,20 @@ public class FSM implements java.io.Serializable {
         _fsm.setAction(message, act);
     }
 
+    /**
+     * Adds a transition valid in any state<br/>
+     * A transition configured on a state for the same message takes 
+     * precedence over it.<br/>
+     *
+     * @param message Message, or {@link FSMState#ANY} for any message
+     * @param action Name of the action, as passed to the action methods
+     * @param nextState State to be attained on successful transition
+     */
+    public void addGlobalTransition(String message, String action, 
+            String nextState) {
+        _fsm.addGlobalTransition(message, action, nextState);
+    }
+
     public void setStatesBeforeTransition(String state, FSMStateAction act) {
         _fsm.setStateBeforeTransition(state, act);
     }
@@ -357,6 +894,44 @@ public class FSM implements java.io.Serializable {
         _fsm.setStateAfterTransition(l, act);
     }
 
+    /**
+     * Method merges equivalent states of the FSM<br/>
+     * Equivalent states have the same hooks, and take every message along
+     * transitions of the same name and action to equivalent states. A 
+     * merged state is seen by the name of the state kept, by 
+     * {@link #getCurrentState()} and listeners as well; states whose names
+     * the default action or hooks are passed are hence not merged. Actions
+     * shall be bound before, and the definition shall not be shared 
+     * yet.<br/>
+     * 
+     * @return Number of states merged into others
+     * @see FSMDefinition#minimize()
+     */
+    public int minimize() { return _fsm.minimize(); }
+
+    /**
+     * Method merges equivalent states of the FSM, states whose names the 
+     * default action or hooks are passed included if asked to<br/>
+     * 
+     * @param ignoreNames true, to merge states whatever their names are 
+     *                    seen by
+     * @return Number of states merged into others
+     * @see FSMDefinition#minimize(boolean)
+     */
+    public int minimize(boolean ignoreNames) { return _fsm.minimize(ignoreNames); }
+
+    /**
+     * Method compiles the transitions of the FSM into arrays, dense or 
+     * sparse as their density suits, which all FSMs of the definition then
+     * look their transitions up in<br/>
+     * It shall be called again after transitions are added or states 
+     * merged.<br/>
+     * 
+     * @return Compiled table
+     * @see FSMDefinition#compile()
+     */
+    public FSMTransitionTable compile() { return _fsm.compile(); }
+
     /**
      * Method returns all states associated with the FSM<br/>
      * 
@@ -369,4 +944,55 @@ public class FSM implements java.io.Serializable {
      * @param act Default Action method for the FSM 
      */
     public void setDefaultFsmAction(FSMAction act) { _action = act; }    
+
+    /*
+     * A FSM of a registered definition is written as the identifier of the
+     * definition and the ordinal of its current state, followed by the 
+     * values of its variables if the definition declares any; any other FSM
+     * is written along with all of its states.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        String id = FSMRegistry.getId(this._fsm.getDefinition());
+        int ordinal = this._fsm.getCurrentState().getOrdinal();
+        if (id != null && ordinal >= 0) {
+            out.writeBoolean(true);
+            out.writeUTF(id);
+            out.writeInt(ordinal);
+            if (this._fsm.getVariables() != null) {
+                out.writeObject(this._fsm.getVariables());
+            }
+        } else {
+            out.writeBoolean(false);
+            out.writeObject(this._fsm);
+        }
+    }
+
+    /*
+     * Attaches a FSM written in compact form to its registered definition
+     * and default action.
+     */
+    private void readObject(ObjectInputStream in) 
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (in.readBoolean()) {
+            String id = in.readUTF();
+            int ordinal = in.readInt();
+            FSMDefinition _d = FSMRegistry.getDefinition(id);
+            if (_d == null) {
+                throw new InvalidObjectException("FSM definition not registered: " + id);
+            }
+            if (ordinal < 0 || ordinal >= _d.getAllStates().size()) {
+                throw new InvalidObjectException("Invalid state ordinal: " + ordinal);
+            }
+            this._fsm = new FSMStates(_d);
+            this._fsm.setCurrentState(_d.getState(ordinal));
+            if (this._fsm.getVariables() != null) {
+                this._fsm.getVariables().copyFrom((FSMVariables) in.readObject());
+            }
+            this._action = FSMRegistry.getAction(id);
+        } else {
+            this._fsm = (FSMStates) in.readObject();
+        }
+    }
 }
@@ -0,0 +1,192 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Action.FSMAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class implements an action grouping transitions into batches<br/>
+ * 
+ * <p>
+ * The batcher is bound to transitions as any other action, on one or many
+ * FSMs. A transition calling it joins the current batch and waits; the 
+ * batch is run by a single call of the {@link FSMBatchAction} when it 
+ * holds the maximum number of entries, or when the maximum delay has 
+ * passed since its first entry arrived. Each transition is then committed
+ * if its entry succeeded.<br/>
+ * Batches are run by the caller filling them, or by the caller of their 
+ * first entry when the delay passes; no thread of its own is used. If the
+ * batch action throws, every entry of the batch fails, and the exception
+ * is thrown to the caller which ran the batch.<br/>
+ * As callers wait for their batch, transitions of a single thread are 
+ * delayed by the maximum delay each; batching pays off when many threads
+ * drive FSMs at once.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMActionBatcher extends FSMAction {
+    
+    /*
+     * Entries waiting for the same call of the batch action
+     */
+    private static final class Batch {
+        final List<FSMBatchAction.Entry> entries = new ArrayList<FSMBatchAction.Entry>();
+        final CountDownLatch done = new CountDownLatch(1);
+    }
+    
+    private final FSMBatchAction _action;
+    private final int _maxBatch;
+    private final long _maxDelayNanos;
+    private final Object _lock = new Object();
+    private Batch _current = new Batch();
+    
+    private final AtomicLong _batches = new AtomicLong();
+    private final AtomicLong _entries = new AtomicLong();
+    
+    /**
+     * 
+     * @param action Action run for each batch
+     * @param maxBatch Maximum number of entries of a batch
+     * @param maxDelay Maximum time the first entry of a batch waits
+     * @param unit Unit of the delay
+     */
+    public FSMActionBatcher(FSMBatchAction action, int maxBatch, long maxDelay,
+            TimeUnit unit) {
+        this._action = action;
+        this._maxBatch = Math.max(1, maxBatch);
+        this._maxDelayNanos = unit.toNanos(maxDelay);
+    }
+    
+    /**
+     * Method runs the action of a transition not taken by a FSM, the entry 
+     * having no FSM<br/>
+     */
+    @Override
+    public boolean action(String curState, String message, String nextState, 
+            Object args) {
+        return action(null, curState, message, nextState, args);
+    }
+    
+    /**
+     * Method runs the action of a transition of a FSM as part of a batch,
+     * and waits for the batch<br/>
+     * 
+     * @param fsm FSM taking the transition
+     * @param curState Current state
+     * @param message Name of the action
+     * @param nextState Next state
+     * @param args Shared data of the FSM
+     * @return true, iff the entry of the transition succeeded
+     */
+    public boolean action(FSM fsm, String curState, String message, 
+            String nextState, Object args) {
+        FSMBatchAction.Entry e = new FSMBatchAction.Entry(fsm, curState, 
+                message, nextState, args);
+        Batch mine, full = null;
+        boolean first;
+        synchronized (this._lock) {
+            mine = this._current;
+            mine.entries.add(e);
+            first = mine.entries.size() == 1;
+            if (mine.entries.size() >= this._maxBatch) {
+                full = mine;
+                this._current = new Batch();
+            }
+        }
+        if (full != null) {
+            run(full);
+            return e.isSuccess();
+        }
+        boolean interrupted = false;
+        try {
+            if (first) {
+                try {
+                    if (mine.done.await(this._maxDelayNanos, TimeUnit.NANOSECONDS)) {
+                        return e.isSuccess();
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+                synchronized (this._lock) {
+                    if (this._current == mine) {
+                        this._current = new Batch();
+                        full = mine;
+                    }
+                }
+                if (full != null) {
+                    run(full);
+                    return e.isSuccess();
+                }
+            }
+            while (true) {
+                try {
+                    mine.done.await();
+                    return e.isSuccess();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void run(Batch b) {
+        this._batches.incrementAndGet();
+        this._entries.addAndGet(b.entries.size());
+        try {
+            this._action.action(b.entries);
+        } catch (RuntimeException | Error ex) {
+            for (FSMBatchAction.Entry e : b.entries) e.setSuccess(false);
+            throw ex;
+        } finally {
+            b.done.countDown();
+        }
+    }
+    
+    /**
+     * 
+     * @return Number of batches run
+     */
+    public long getBatches() { return this._batches.get(); }
+    
+    /**
+     * 
+     * @return Number of entries run
+     */
+    public long getEntries() { return this._entries.get(); }
+    
+    @Override
+    public String toString() {
+        long b = getBatches();
+        return "FSMActionBatcher[batches=" + b + ", entries=" + getEntries() 
+                + ", mean=" + (b == 0 ? 0 : getEntries() / (double) b) + "]";
+    }
+}
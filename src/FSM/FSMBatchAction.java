@@ -0,0 +1,99 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import java.util.List;
+
+/**
+ * Interface to be implemented by actions run for several transitions at 
+ * once<br/>
+ * 
+ * <p>
+ * Transitions bound to a {@link FSMActionBatcher} are grouped, and their
+ * entries passed to a single call of the batch action, as to write them
+ * to a database in one round trip. The batch action sets the success of 
+ * each entry; the transition of an entry is committed only if it 
+ * succeeded, as if its action had returned true.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public interface FSMBatchAction {
+    
+    /**
+     * A transition waiting for its action
+     */
+    public static final class Entry {
+        private final FSM _fsm;
+        private final String _curState;
+        private final String _message;
+        private final String _nextState;
+        private final Object _data;
+        private volatile boolean _success;
+        
+        Entry(FSM fsm, String curState, String message, String nextState, 
+                Object data) {
+            this._fsm = fsm;
+            this._curState = curState;
+            this._message = message;
+            this._nextState = nextState;
+            this._data = data;
+        }
+        
+        /**
+         * @return FSM taking the transition; null, if the action was not
+         *         called by a FSM
+         */
+        public FSM getFSM() { return this._fsm; }
+        
+        public String getCurState() { return this._curState; }
+        
+        /**
+         * @return Name of the action of the transition
+         */
+        public String getMessage() { return this._message; }
+        
+        public String getNextState() { return this._nextState; }
+        
+        /**
+         * @return Shared data of the FSM
+         */
+        public Object getData() { return this._data; }
+        
+        /**
+         * @param success true, if the transition shall be committed
+         */
+        public void setSuccess(boolean success) { this._success = success; }
+        
+        public boolean isSuccess() { return this._success; }
+    }
+    
+    /**
+     * Method runs the action of several transitions<br/>
+     * Entries not set successful are not committed.<br/>
+     * 
+     * @param entries Transitions, in the order they arrived
+     */
+    public void action(List<Entry> entries);
+}
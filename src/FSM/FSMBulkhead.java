@@ -0,0 +1,151 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class implements a bulkhead isolating the actions of FSMs<br/>
+ * 
+ * <p>
+ * A FSM given a bulkhead by {@link FSM#setBulkhead} runs the action of each
+ * transition on one of the bulkhead's threads, and waits for it no longer 
+ * than its timeout. An action which does not complete in time is 
+ * interrupted and taken as failed, so that the transition is not made; so
+ * is an action which finds every thread of the bulkhead busy and its queue
+ * full. Misbehaving actions hence hold at most the bulkhead's threads, 
+ * while the callers of the FSMs go on.<br/>
+ * FSMs whose actions shall not disturb each other are given different 
+ * bulkheads.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMBulkhead {
+    
+    private final String _name;
+    private final ThreadPoolExecutor _executor;
+    private final AtomicLong _completed = new AtomicLong();
+    private final AtomicLong _rejected = new AtomicLong();
+    private final AtomicLong _timedOut = new AtomicLong();
+    
+    /**
+     * 
+     * @param name Name of the bulkhead, given to its threads
+     * @param threads Number of threads running actions
+     * @param queue Number of actions which can wait for a thread
+     */
+    public FSMBulkhead(String name, int threads, int queue) {
+        this._name = name;
+        final AtomicInteger n = new AtomicInteger();
+        this._executor = new ThreadPoolExecutor(threads, threads, 0, 
+                TimeUnit.MILLISECONDS, 
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queue)), r -> {
+                    Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+    
+    /*
+     * Runs the action within the timeout; false, if it timed out or could
+     * not be run. Exceptions of the action are thrown to the caller.
+     */
+    boolean run(Callable<Boolean> action, long timeoutNanos) {
+        Future<Boolean> f;
+        try {
+            f = this._executor.submit(action);
+        } catch (RejectedExecutionException ex) {
+            this._rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            boolean status = f.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            this._completed.incrementAndGet();
+            return status;
+        } catch (TimeoutException ex) {
+            f.cancel(true);
+            this._timedOut.incrementAndGet();
+            return false;
+        } catch (InterruptedException ex) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            Throwable c = ex.getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof Error) throw (Error) c;
+            throw new IllegalStateException(c);
+        }
+    }
+    
+    public String getName() { return this._name; }
+    
+    /**
+     * 
+     * @return Number of actions completed in time
+     */
+    public long getCompleted() { return this._completed.get(); }
+    
+    /**
+     * 
+     * @return Number of actions not run, the bulkhead being full
+     */
+    public long getRejected() { return this._rejected.get(); }
+    
+    /**
+     * 
+     * @return Number of actions which did not complete in time
+     */
+    public long getTimedOut() { return this._timedOut.get(); }
+    
+    /**
+     * 
+     * @return Number of actions running or waiting for a thread
+     */
+    public int getBusy() { 
+        return this._executor.getActiveCount() + this._executor.getQueue().size();
+    }
+    
+    /**
+     * Method stops the threads of the bulkhead, interrupting running 
+     * actions<br/>
+     */
+    public void shutdown() { this._executor.shutdownNow(); }
+    
+    @Override
+    public String toString() {
+        return this._name + "[busy=" + getBusy() + ", completed=" + getCompleted()
+                + ", rejected=" + getRejected() + ", timedOut=" + getTimedOut() + "]";
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import States.FSMDefinition;
+import States.FSMState;
+import States.FSMTransitionResult;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class implements a bounded cache of processed idempotency keys<br/>
+ * 
+ * <p>
+ * A message delivered more than once bears the same idempotency key each
+ * time. The cache records, for each key processed, the state the message
+ * was received in and whether the transition was committed, so that a 
+ * duplicate is answered with the result of the first delivery, without 
+ * running actions again.<br/>
+ * Keys are kept as 64 bit hashes in primitive arrays, about 20 bytes per
+ * key, organised as buckets of {@value #WAYS} entries. A key can be kept
+ * in either of two buckets: it takes a free or expired entry of the less
+ * loaded one, or else replaces the oldest entry of both. The cache hence 
+ * never holds more than its capacity, and forgets a key once its time to
+ * live has passed. As keys are hashed, two distinct keys are taken as the
+ * same with a probability of about n/2^64 for n cached keys.<br/>
+ * A cache can be given to one FSM, or shared by the FSMs of one definition
+ * whose idempotency keys are distinct, or scoped by instance keys, as
+ * does {@link Store.FSMInstanceCache}. All methods can be called 
+ * concurrently.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMDedupCache {
+    
+    /**
+     * Number of entries of a bucket
+     */
+    public static final int WAYS = 4;
+    private static final int STRIPES = 64;
+    
+    private final long[] _keys;
+    private final long[] _times;
+    private final int[] _values;
+    private final int _mask;
+    private final long _ttlNanos;
+    private final Object[] _stripes = new Object[STRIPES];
+    
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+    
+    /**
+     * 
+     * @param capacity Maximum number of keys, rounded up to a power of two
+     * @param ttl Time a key is remembered
+     * @param unit Unit of the time to live
+     */
+    public FSMDedupCache(int capacity, long ttl, TimeUnit unit) {
+        int need = Math.max(1, (capacity + WAYS - 1) / WAYS);
+        int buckets = Integer.highestOneBit(need);
+        if (buckets < need) buckets <<= 1;
+        this._mask = buckets - 1;
+        this._keys = new long[buckets * WAYS];
+        this._times = new long[buckets * WAYS];
+        this._values = new int[buckets * WAYS];
+        this._ttlNanos = unit.toNanos(ttl);
+        for (int i = 0; i < STRIPES; i++) this._stripes[i] = new Object();
+    }
+    
+    /**
+     * Method hashes an idempotency key<br/>
+     * 
+     * @param key Idempotency key
+     * @return Hash of the key
+     */
+    public static long hash(String key) { return mix(fnv(0xcbf29ce484222325L, key)); }
+    
+    /**
+     * Method hashes an idempotency key within a scope, such as the key of 
+     * a FSM instance<br/>
+     * 
+     * @param scope Scope of the key
+     * @param key Idempotency key
+     * @return Hash of the scoped key
+     */
+    public static long hash(String scope, String key) {
+        long h = fnv(0xcbf29ce484222325L, scope);
+        h ^= 0xffff;
+        h *= 0x100000001b3L;
+        return mix(fnv(h, key));
+    }
+    
+    /*
+     * 64 bit FNV-1a, and the avalanche spreading similar keys over buckets
+     */
+    private static long fnv(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+    
+    private static long mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h == 0 ? 1 : h;
+    }
+    
+    /**
+     * Method returns the result recorded for a key<br/>
+     * 
+     * @param key Hash of the idempotency key
+     * @param definition Definition of the FSM which processed the key
+     * @param message Message bearing the key
+     * @return Result of the first delivery; null, if the key is unknown
+     */
+    public FSMTransitionResult get(long key, FSMDefinition definition, 
+            String message) {
+        int v = lookup(key);
+        if (v < 0) {
+            this._misses.increment();
+            return null;
+        }
+        this._hits.increment();
+        FSMState from = definition.getState(v >>> 1);
+        return new FSMTransitionResult(from.getCurrentState(), message, 
+                from.getTransition(message), (v & 1) != 0);
+    }
+    
+    /**
+     * Method records the result of processing a key<br/>
+     * 
+     * @param key Hash of the idempotency key
+     * @param result Result of the transition
+     * @param definition Definition of the FSM which processed the key
+     */
+    public void put(long key, FSMTransitionResult result, FSMDefinition definition) {
+        FSMState from = definition.getState(result.getFromState());
+        store(key, from.getOrdinal() << 1 | (result.isCommitted() ? 1 : 0));
+    }
+    
+    /*
+     * A key may be in either of two buckets, taken from the low and high
+     * bits of its hash; the locks of both are taken in stripe order.
+     */
+    private int lookup(long key) {
+        int b1 = (int) key & this._mask, b2 = (int) (key >>> 32) & this._mask;
+        long now = System.nanoTime();
+        synchronized (lock(b1, b2, true)) {
+            synchronized (lock(b1, b2, false)) {
+                int i = find(b1, key);
+                if (i < 0) i = find(b2, key);
+                if (i < 0 || now - this._times[i] > this._ttlNanos) return -1;
+                return this._values[i];
+            }
+        }
+    }
+    
+    private Object lock(int b1, int b2, boolean first) {
+        int s1 = b1 & (STRIPES - 1), s2 = b2 & (STRIPES - 1);
+        return this._stripes[first == s1 <= s2 ? s1 : s2];
+    }
+    
+    private int find(int b, long key) {
+        for (int i = b * WAYS; i < (b + 1) * WAYS; i++) {
+            if (this._keys[i] == key) return i;
+        }
+        return -1;
+    }
+    
+    /*
+     * Stores the key in its own entry, else in a free or expired entry of
+     * the bucket having more of them, else in place of the oldest entry
+     */
+    private void store(long key, int value) {
+        int b1 = (int) key & this._mask, b2 = (int) (key >>> 32) & this._mask;
+        long now = System.nanoTime();
+        synchronized (lock(b1, b2, true)) {
+            synchronized (lock(b1, b2, false)) {
+                int slot = find(b1, key);
+                if (slot < 0) slot = find(b2, key);
+                if (slot < 0) {
+                    int oldest = b1 * WAYS, free = 0;
+                    for (int n = 0; n < 2; n++) {
+                        int b = n == 0 ? b1 : b2, f = 0, first = -1;
+                        for (int i = b * WAYS; i < (b + 1) * WAYS; i++) {
+                            if (this._keys[i] == 0 || now - this._times[i] > this._ttlNanos) {
+                                if (first < 0) first = i;
+                                f++;
+                            } else if (this._times[i] - this._times[oldest] < 0) {
+                                oldest = i;
+                            }
+                        }
+                        if (f > free) {
+                            free = f;
+                            slot = first;
+                        }
+                    }
+                    if (slot < 0) {
+                        slot = oldest;
+                        this._evictions.increment();
+                    }
+                }
+                this._keys[slot] = key;
+                this._times[slot] = now;
+                this._values[slot] = value;
+            }
+        }
+    }
+    
+    /**
+     * Method forgets all keys<br/>
+     */
+    public void clear() {
+        for (int b = 0; b <= this._mask; b++) {
+            synchronized (this._stripes[b & (STRIPES - 1)]) {
+                Arrays.fill(this._keys, b * WAYS, (b + 1) * WAYS, 0L);
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @return Maximum number of keys
+     */
+    public int getCapacity() { return this._keys.length; }
+    
+    /**
+     * 
+     * @return Number of duplicates found
+     */
+    public long getHits() { return this._hits.sum(); }
+    
+    /**
+     * 
+     * @return Number of lookups not finding their key
+     */
+    public long getMisses() { return this._misses.sum(); }
+    
+    /**
+     * 
+     * @return Number of keys forgotten before their time to live passed
+     */
+    public long getEvictions() { return this._evictions.sum(); }
+    
+    @Override
+    public String toString() {
+        return "FSMDedupCache[capacity=" + getCapacity() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+/**
+ * Class holds a message addressed to a FSM instance<br/>
+ * 
+ * The key identifies the FSM instance which shall process the message; it
+ * can be null when messages are addressed to a single FSM.<br/>
+ * 
+ * @author ANKIT
+ */
+public class FSMEvent implements java.io.Serializable {
+    private static final long serialVersionUID = 8035274619907355021L;
+    
+    private final Object _key;
+    private final String _message;
+    
+    /**
+     * 
+     * @param key     Key of the FSM instance; can be null
+     * @param message Message to be processed
+     */
+    public FSMEvent(Object key, String message) {
+        this._key = key;
+        this._message = message;
+    }
+    
+    /**
+     * 
+     * @param message Message to be processed
+     */
+    public FSMEvent(String message) {
+        this(null, message);
+    }
+    
+    /**
+     * 
+     * @return Key of the FSM instance; null, if not keyed
+     */
+    public Object getKey() { return this._key; }
+    
+    /**
+     * 
+     * @return Message to be processed
+     */
+    public String getMessage() { return this._message; }
+    
+    @Override
+    public String toString() {
+        return (this._key == null ? "" : this._key + ":") + this._message;
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Action.FSMAction;
+import Common.CustomXMLReader;
+import States.FSMDefinition;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class loads many XML Configuration files in parallel<br/>
+ * 
+ * <p>
+ * Each file is parsed and its definitions are built on a ForkJoinPool. A
+ * file holding named FSMs yields one definition per name; any other file
+ * yields one definition identified by the file name without extension.<br/>
+ * A file failing to load is reported with its error, without failing the
+ * other files. Load time of each file is recorded.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMLoader {
+    
+    private final ForkJoinPool _pool;
+    private final boolean _lazy;
+    
+    /**
+     * 
+     * @param pool Pool on which files are loaded
+     * @param lazy Specifies if states of definitions shall be loaded on demand
+     */
+    public FSMLoader(ForkJoinPool pool, boolean lazy) {
+        this._pool = pool;
+        this._lazy = lazy;
+    }
+    
+    /**
+     * Constructor creates a loader building definitions eagerly on the 
+     * common pool<br/>
+     */
+    public FSMLoader() {
+        this(ForkJoinPool.commonPool(), false);
+    }
+    
+    /**
+     * Method loads all XML files of a directory<br/>
+     * 
+     * @param dir Directory holding XML Configuration files
+     * @return Result of the load
+     */
+    public Result load(File dir) {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().toLowerCase().endsWith(".xml");
+            }
+        });
+        if (files == null) files = new File[0];
+        Arrays.sort(files);
+        return load(Arrays.asList(files));
+    }
+    
+    /**
+     * Method loads the specified files<br/>
+     * 
+     * @param files XML Configuration files
+     * @return Result of the load
+     */
+    public Result load(List<File> files) {
+        long start = System.nanoTime();
+        List<Callable<Map<String, FSMDefinition>>> tasks = 
+                new ArrayList<Callable<Map<String, FSMDefinition>>>();
+        final long[] timings = new long[files.size()];
+        final Exception[] errors = new Exception[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            final File f = files.get(i);
+            final int n = i;
+            tasks.add(new Callable<Map<String, FSMDefinition>>() {
+                @Override
+                public Map<String, FSMDefinition> call() {
+                    long t = System.nanoTime();
+                    try {
+                        return loadFile(f);
+                    } catch (Exception ex) {
+                        /* Kept as is; the pool would wrap it */
+                        errors[n] = ex;
+                        return null;
+                    } finally {
+                        timings[n] = System.nanoTime() - t;
+                    }
+                }
+            });
+        }
+        List<Future<Map<String, FSMDefinition>>> futures = this._pool.invokeAll(tasks);
+        
+        Result r = new Result();
+        for (int i = 0; i < files.size(); i++) {
+            File f = files.get(i);
+            r._timings.put(f, timings[i]);
+            try {
+                Map<String, FSMDefinition> defs = futures.get(i).get();
+                if (errors[i] != null) {
+                    r._errors.put(f, errors[i]);
+                    continue;
+                }
+                for (String id : defs.keySet()) {
+                    if (r._definitions.containsKey(id)) {
+                        throw new ExecutionException(new IllegalStateException(
+                                "Duplicate definition " + id));
+                    }
+                }
+                r._definitions.putAll(defs);
+            } catch (ExecutionException ex) {
+                r._errors.put(f, ex.getCause() instanceof Exception ? 
+                        (Exception) ex.getCause() : ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                r._errors.put(f, ex);
+            }
+        }
+        r._elapsed = System.nanoTime() - start;
+        return r;
+    }
+    
+    /*
+     * Parses a file and builds its definitions.
+     */
+    private Map<String, FSMDefinition> loadFile(File f) throws Exception {
+        CustomXMLReader _r = new CustomXMLReader(f.getPath());
+        Map<String, FSMDefinition> defs = new LinkedHashMap<String, FSMDefinition>();
+        List<String> names = _r.getDefinitionNames();
+        if (names.isEmpty()) {
+            String id = f.getName();
+            int dot = id.lastIndexOf('.');
+            if (dot > 0) id = id.substring(0, dot);
+            defs.put(id, new FSMDefinition(id, _r, this._lazy));
+        } else {
+            for (String name : names) {
+                defs.put(name, new FSMDefinition(name, 
+                        _r.getDefinition(name), this._lazy));
+            }
+        }
+        for (FSMDefinition d : defs.values()) {
+            if (d.getAllStates().isEmpty()) {
+                throw new IllegalStateException("Definition " + d.getName() 
+                        + " has no state");
+            }
+        }
+        return defs;
+    }
+    
+    /**
+     * Class holds the outcome of a load
+     */
+    public static class Result {
+        private final LinkedHashMap<String, FSMDefinition> _definitions = 
+                new LinkedHashMap<String, FSMDefinition>();
+        private final LinkedHashMap<File, Exception> _errors = 
+                new LinkedHashMap<File, Exception>();
+        private final LinkedHashMap<File, Long> _timings = 
+                new LinkedHashMap<File, Long>();
+        private long _elapsed;
+        
+        /**
+         * 
+         * @return Definitions loaded, by identifier
+         */
+        public Map<String, FSMDefinition> getDefinitions() { 
+            return Collections.unmodifiableMap(this._definitions); 
+        }
+        
+        /**
+         * 
+         * @param id Identifier of a definition
+         * @return The definition; null, if not loaded
+         */
+        public FSMDefinition getDefinition(String id) { 
+            return this._definitions.get(id); 
+        }
+        
+        /**
+         * 
+         * @return Errors of the files which failed to load
+         */
+        public Map<File, Exception> getErrors() { 
+            return Collections.unmodifiableMap(this._errors); 
+        }
+        
+        /**
+         * 
+         * @return Load time of each file, in nanoseconds
+         */
+        public Map<File, Long> getTimings() { 
+            return Collections.unmodifiableMap(this._timings); 
+        }
+        
+        /**
+         * 
+         * @return Time taken by the whole load, in nanoseconds
+         */
+        public long getElapsedNanos() { return this._elapsed; }
+        
+        /**
+         * Method registers all loaded definitions in the {@link FSMRegistry}<br/>
+         * 
+         * @param action Default action of FSMs of the definitions
+         */
+        public void registerAll(FSMAction action) {
+            for (Map.Entry<String, FSMDefinition> e : this._definitions.entrySet()) {
+                FSMRegistry.register(e.getKey(), e.getValue(), action);
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Common.CustomXMLReader;
+import States.FSMDefinition;
+import States.FSMState;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
+
+/**
+ * Class implements a nondeterministic FSM<br/>
+ * 
+ * <p>
+ * A state of the XML Configuration may list the same message several times,
+ * each with its own next state. Instead of keeping only the last of them, 
+ * a nondeterministic FSM follows all of them: it tracks the set of active
+ * states, and a message moves every active state along each of its 
+ * transitions on the message.<br/>
+ * The active set is held as a bit set of words, one bit per state in 
+ * configuration order; the targets of each state on each message are 
+ * compiled into bit sets as well, so that a message is processed by 
+ * or-ing the targets of the active states word by word.<br/>
+ * Initially only the first state is active. A state of id "*" adds its 
+ * transitions to every state, and a message of id "*" matches every 
+ * message, in addition to the transitions of the message itself. A message
+ * which leaves no state active empties the set for good.<br/>
+ * Actions are not run; the FSM is meant to recognize message sequences.
+ * For constant cost per message, {@link #compile(int)} turns it into an
+ * equivalent deterministic {@link FSMDefinition}.<br/>
+ * An instance is not thread-safe; {@link #copy()} creates further 
+ * instances sharing the compiled transitions.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMNfa {
+    
+    /**
+     * Name of the state of the compiled FSM which no state is active in
+     */
+    public static final String EMPTY = "{}";
+    
+    /*
+     * Compiled transitions, shared between copies
+     */
+    private final String[] _names;
+    private final HashMap<String, Integer> _index;
+    private final LinkedHashMap<String, Integer> _messages;
+    private final int _words;
+    /*
+     * Targets of each state on each message, and on messages having no
+     * transition of their own; null, if none
+     */
+    private final long[][][] _delta;
+    private final long[][] _anyDelta;
+    /*
+     * Action names of the transitions of each state on each message, as
+     * used for the compiled FSM
+     */
+    private final String[][][] _actions;
+    private final String[][] _anyActions;
+    
+    /*
+     * Active states; _next is reused for the following set
+     */
+    private long[] _active;
+    private long[] _next;
+    
+    /**
+     * This Constructor allows to create a nondeterministic FSM from a XML
+     * Configuration<br/>
+     * 
+     * @param reader Reader of the XML Configuration
+     */
+    public FSMNfa(CustomXMLReader reader) {
+        LinkedHashSet<String> _u = new LinkedHashSet<String>();
+        for (Object o : reader.getStates()) _u.add((String) o);
+        boolean _hasAny = _u.remove(FSMState.ANY);
+        this._names = _u.toArray(new String[_u.size()]);
+        this._index = new HashMap<String, Integer>();
+        for (int i = 0; i < _names.length; i++) _index.put(_names[i], i);
+        this._words = Math.max(1, (_names.length + 63) >>> 6);
+        
+        /*
+         * Collect the transitions of each state, along with those valid in
+         * any state, and number the messages
+         */
+        List<String[]> _global = _hasAny ?
+                reader.getStateTransitions(FSMState.ANY) : new ArrayList<String[]>();
+        List<List<String[]>> _t = new ArrayList<List<String[]>>(_names.length);
+        this._messages = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < _names.length; i++) {
+            _t.add(reader.getStateTransitions(_names[i]));
+            _t.get(i).addAll(_global);
+            for (String[] tr : _t.get(i)) {
+                String m = tr[0];
+                if (!FSMState.ANY.equals(m) && !_messages.containsKey(m)) {
+                    _messages.put(m, _messages.size());
+                }
+            }
+        }
+        
+        /*
+         * Transitions on any message are folded into the targets of every
+         * message, so that a message costs a single or per active state
+         */
+        this._anyDelta = new long[_names.length][];
+        this._anyActions = new String[_names.length][];
+        this._delta = new long[_messages.size()][_names.length][];
+        this._actions = new String[_messages.size()][_names.length][];
+        for (int i = 0; i < _names.length; i++) {
+            for (String[] tr : _t.get(i)) {
+                if (FSMState.ANY.equals(tr[0])) {
+                    add(_anyDelta, _anyActions, i, tr);
+                    for (int m = 0; m < _delta.length; m++) {
+                        add(_delta[m], _actions[m], i, tr);
+                    }
+                } else {
+                    int m = _messages.get(tr[0]);
+                    add(_delta[m], _actions[m], i, tr);
+                }
+            }
+        }
+        
+        this._active = new long[_words];
+        this._next = new long[_words];
+        reset();
+    }
+
+    /**
+     * This Constructor allows to create a nondeterministic FSM from the 
+     * input-stream of a XML Configuration<br/>
+     * 
+     * @param configFStream
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMNfa(InputStream configFStream) 
+            throws ParserConfigurationException, SAXException, IOException {
+        this(new CustomXMLReader(configFStream));
+    }
+    
+    /*
+     * Creates an instance sharing the compiled transitions of another
+     */
+    private FSMNfa(FSMNfa other) {
+        this._names = other._names;
+        this._index = other._index;
+        this._messages = other._messages;
+        this._words = other._words;
+        this._delta = other._delta;
+        this._anyDelta = other._anyDelta;
+        this._actions = other._actions;
+        this._anyActions = other._anyActions;
+        this._active = new long[_words];
+        this._next = new long[_words];
+        reset();
+    }
+    
+    /*
+     * Adds the target of a transition to the targets of state i
+     */
+    private void add(long[][] delta, String[][] actions, int i, String[] tr) {
+        Integer _n = _index.get(tr[2]);
+        if (_n == null) return;
+        if (delta[i] == null) delta[i] = new long[_words];
+        delta[i][_n >>> 6] |= 1L << _n;
+        String[] _a = actions[i];
+        if (_a == null) {
+            actions[i] = new String[] { tr[1] };
+        } else if (!Arrays.asList(_a).contains(tr[1])) {
+            _a = Arrays.copyOf(_a, _a.length + 1);
+            _a[_a.length - 1] = tr[1];
+            actions[i] = _a;
+        }
+    }
+    
+    /**
+     * Method creates a further instance of this FSM in its initial state,
+     * sharing the compiled transitions<br/>
+     * 
+     * @return New instance
+     */
+    public FSMNfa copy() { return new FSMNfa(this); }
+    
+    /**
+     * Method moves every active state along its transitions on the 
+     * message<br/>
+     * 
+     * @param message Received message
+     * @return true, iff any state remains active
+     */
+    public boolean process(String message) {
+        Integer _m = this._messages.get(message);
+        step(this._active, _m == null ? this._anyDelta : this._delta[_m], 
+                this._next);
+        long[] _t = this._active;
+        this._active = this._next;
+        this._next = _t;
+        return !isEmpty(this._active);
+    }
+    
+    /*
+     * Sets 'to' to the union of the targets of the states set in 'from'
+     */
+    private void step(long[] from, long[][] delta, long[] to) {
+        Arrays.fill(to, 0L);
+        for (int w = 0; w < this._words; w++) {
+            long _bits = from[w];
+            while (_bits != 0) {
+                long[] _d = delta[(w << 6) + Long.numberOfTrailingZeros(_bits)];
+                _bits &= _bits - 1;
+                if (_d == null) continue;
+                for (int i = 0; i < this._words; i++) to[i] |= _d[i];
+            }
+        }
+    }
+    
+    private static boolean isEmpty(long[] set) {
+        for (long w : set) if (w != 0) return false;
+        return true;
+    }
+    
+    /**
+     * Method makes only the initial state active<br/>
+     */
+    public void reset() {
+        Arrays.fill(this._active, 0L);
+        if (this._names.length > 0) this._active[0] = 1L;
+    }
+    
+    /**
+     * 
+     * @param state Name of the state
+     * @return true, iff the state is active
+     */
+    public boolean isActive(String state) {
+        Integer _i = this._index.get(state);
+        return _i != null && (this._active[_i >>> 6] & (1L << _i)) != 0;
+    }
+    
+    /**
+     * 
+     * @return true, iff no state is active
+     */
+    public boolean isEmpty() { return isEmpty(this._active); }
+    
+    /**
+     * 
+     * @return Set of the ordinals of the active states
+     */
+    public BitSet getActiveSet() { return BitSet.valueOf(this._active); }
+    
+    /**
+     * 
+     * @return Names of the active states, in configuration order
+     */
+    public List<String> getActiveStates() { return names(this._active); }
+    
+    private List<String> names(long[] set) {
+        List<String> _l = new ArrayList<String>();
+        BitSet _b = BitSet.valueOf(set);
+        for (int i = _b.nextSetBit(0); i >= 0; i = _b.nextSetBit(i + 1)) {
+            _l.add(this._names[i]);
+        }
+        return _l;
+    }
+    
+    /**
+     * 
+     * @return Names of the states, in configuration order
+     */
+    public List<String> getStateNames() { return Arrays.asList(this._names); }
+    
+    /**
+     * Method compiles this FSM into an equivalent deterministic definition
+     * by subset construction<br/>
+     * 
+     * <p>
+     * Each state of the compiled FSM stands for a set of states of this
+     * FSM reachable from the initial state, and is named by them, as in
+     * "{S1,S3}"; a "," or "\" within the name of a state is preceded by a
+     * "\", so that distinct sets are never named alike. The set in which no
+     * state is active is named {@link #EMPTY} and has no transitions. A 
+     * transition of the compiled FSM is named by the distinct action names
+     * of the transitions it stands for, separated by ",".<br/>
+     * The compiled FSM processes a message with a single lookup, whatever
+     * the number of active states; its states are however exponential in 
+     * the number of states of this FSM in the worst case.
+     * </p>
+     * 
+     * @param maxStates Maximum number of states of the compiled FSM
+     * @return Deterministic definition
+     * @throws IllegalStateException if more than maxStates states are needed
+     */
+    public FSMDefinition compile(int maxStates) {
+        LinkedHashMap<BitSet, String> _seen = new LinkedHashMap<BitSet, String>();
+        ArrayDeque<long[]> _queue = new ArrayDeque<long[]>();
+        List<FSMState> _states = new ArrayList<FSMState>();
+        String[] _msgs = this._messages.keySet().toArray(new String[0]);
+        long[] _init = new long[this._words];
+        if (this._names.length > 0) _init[0] = 1L;
+        name(_init, _seen, _queue, maxStates);
+        
+        while (!_queue.isEmpty()) {
+            long[] _set = _queue.poll();
+            String _name = _seen.get(BitSet.valueOf(_set));
+            HashMap<String, String> _map = new HashMap<String, String>();
+            if (!isEmpty(_set)) {
+                /*
+                 * Transition on any message; a message gets its own
+                 * transition only when it differs from this one
+                 */
+                long[] _to = new long[this._words];
+                step(_set, this._anyDelta, _to);
+                String _anyAction = actions(_set, this._anyActions);
+                String _anyTarget = name(_to, _seen, _queue, maxStates);
+                _map.put(FSMState.ANY, _anyAction + ":" + _anyTarget);
+                for (int m = 0; m < this._delta.length; m++) {
+                    _to = new long[this._words];
+                    step(_set, this._delta[m], _to);
+                    String _action = actions(_set, this._actions[m]);
+                    String _target = name(_to, _seen, _queue, maxStates);
+                    if (!_target.equals(_anyTarget) || !_action.equals(_anyAction)) {
+                        _map.put(_msgs[m], _action + ":" + _target);
+                    }
+                }
+            }
+            _states.add(new FSMState(_name, _map));
+        }
+        return new FSMDefinition(null, _states);
+    }
+    
+    /*
+     * Returns the name of a set of states, queueing sets not seen before
+     */
+    private String name(long[] set, HashMap<BitSet, String> seen, 
+            ArrayDeque<long[]> queue, int maxStates) {
+        BitSet _b = BitSet.valueOf(set);
+        String _n = seen.get(_b);
+        if (_n == null) {
+            if (seen.size() >= maxStates) {
+                throw new IllegalStateException("Compiled FSM exceeds " 
+                        + maxStates + " states");
+            }
+            List<String> _l = names(set);
+            StringBuilder _sb = new StringBuilder("{");
+            for (int i = 0; i < _l.size(); i++) {
+                if (i > 0) _sb.append(',');
+                String s = _l.get(i);
+                for (int c = 0; c < s.length(); c++) {
+                    char ch = s.charAt(c);
+                    if (ch == ',' || ch == '\\') _sb.append('\\');
+                    _sb.append(ch);
+                }
+            }
+            _n = _sb.append('}').toString();
+            seen.put(_b, _n);
+            queue.add(set);
+        }
+        return _n;
+    }
+    
+    /*
+     * Returns the distinct action names of the active states' transitions
+     */
+    private String actions(long[] set, String[][] actions) {
+        LinkedHashSet<String> _a = new LinkedHashSet<String>();
+        BitSet _b = BitSet.valueOf(set);
+        for (int i = _b.nextSetBit(0); i >= 0; i = _b.nextSetBit(i + 1)) {
+            if (actions[i] != null) _a.addAll(Arrays.asList(actions[i]));
+        }
+        StringBuilder _sb = new StringBuilder();
+        for (String a : _a) {
+            if (_sb.length() > 0) _sb.append(',');
+            _sb.append(a);
+        }
+        return _sb.toString();
+    }
+}
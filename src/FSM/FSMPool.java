@@ -0,0 +1,210 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Action.FSMAction;
+import States.FSMDefinition;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class implements a pool of FSM instances of one definition<br/>
+ * 
+ * <p>
+ * Short lived FSMs can be borrowed from the pool and released back to it,
+ * instead of being created for every use. A released FSM is reset to its
+ * initial state and its shared data is cleared; its transition listener,
+ * cache of idempotency keys and futures waiting for a state are dropped,
+ * the listener being told, so that a {@link FSMStateRegistry} forgets the
+ * FSM, and the futures cancelled.<br/>
+ * The pool is bounded: it keeps at most the specified number of idle
+ * instances; a borrow on an empty pool creates a new instance, and a 
+ * release on a full pool discards the instance.<br/>
+ * All methods can be called concurrently.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMPool {
+    
+    private final FSMDefinition _definition;
+    private final FSMAction _action;
+    private final ArrayBlockingQueue<FSM> _idle;
+    /*
+     * Instances being released or idle, to tell a second release apart
+     */
+    private final Set<FSM> _pooled = ConcurrentHashMap.newKeySet();
+    
+    /*
+     * Pool statistics
+     */
+    private final AtomicLong _created   = new AtomicLong();
+    private final AtomicLong _borrowed  = new AtomicLong();
+    private final AtomicLong _hits      = new AtomicLong();
+    private final AtomicLong _released  = new AtomicLong();
+    private final AtomicLong _discarded = new AtomicLong();
+    
+    /**
+     * Constructor creates an empty pool<br/>
+     * 
+     * @param definition Definition of the pooled FSMs
+     * @param action     Default action of the pooled FSMs
+     * @param maxIdle    Maximum number of idle FSMs kept by the pool
+     */
+    public FSMPool(FSMDefinition definition, FSMAction action, int maxIdle) {
+        this(definition, action, maxIdle, 0);
+    }
+    
+    /**
+     * Constructor creates a pool with pre-built FSMs<br/>
+     * 
+     * @param definition Definition of the pooled FSMs
+     * @param action     Default action of the pooled FSMs
+     * @param maxIdle    Maximum number of idle FSMs kept by the pool
+     * @param prefill    Number of FSMs to be built upfront; at most maxIdle
+     */
+    public FSMPool(FSMDefinition definition, FSMAction action, int maxIdle, 
+            int prefill) {
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("maxIdle must be positive");
+        }
+        this._definition = definition;
+        this._action = action;
+        this._idle = new ArrayBlockingQueue<FSM>(maxIdle);
+        for (int i = 0; i < Math.min(prefill, maxIdle); i++) {
+            FSM f = create();
+            this._pooled.add(f);
+            this._idle.offer(f);
+        }
+    }
+    
+    /*
+     * Creates a new FSM of the pool's definition
+     */
+    private FSM create() {
+        this._created.incrementAndGet();
+        return new FSM(this._definition, this._action);
+    }
+    
+    /**
+     * Method borrows a FSM from the pool; the FSM is in its initial state<br/>
+     * 
+     * @return An idle FSM of the pool, or a new one if none is idle
+     */
+    public FSM borrow() {
+        this._borrowed.incrementAndGet();
+        FSM f = this._idle.poll();
+        if (f == null) {
+            return create();
+        }
+        this._hits.incrementAndGet();
+        this._pooled.remove(f);
+        return f;
+    }
+    
+    /**
+     * Method releases a borrowed FSM back to the pool<br/>
+     * The FSM shall not be used by the caller after being released.<br/>
+     * 
+     * @param f FSM borrowed from this pool
+     * @throws IllegalArgumentException if FSM is of another definition
+     * @throws IllegalStateException if FSM is already released
+     */
+    public void release(FSM f) {
+        if (f.getDefinition() != this._definition) {
+            throw new IllegalArgumentException("FSM does not belong to this pool");
+        }
+        if (!this._pooled.add(f)) {
+            throw new IllegalStateException("FSM is already released");
+        }
+        this._released.incrementAndGet();
+        f.reset();
+        f.detach();
+        f.setDefaultFsmAction(this._action);
+        if (!this._idle.offer(f)) {
+            this._pooled.remove(f);
+            this._discarded.incrementAndGet();
+        }
+    }
+    
+    /**
+     * 
+     * @return Definition of the pooled FSMs
+     */
+    public FSMDefinition getDefinition() { return this._definition; }
+    
+    /**
+     * 
+     * @return Number of idle FSMs currently kept by the pool
+     */
+    public int getIdleCount() { return this._idle.size(); }
+    
+    /**
+     * 
+     * @return Number of FSMs created by the pool
+     */
+    public long getCreatedCount() { return this._created.get(); }
+    
+    /**
+     * 
+     * @return Number of borrows from the pool
+     */
+    public long getBorrowedCount() { return this._borrowed.get(); }
+    
+    /**
+     * 
+     * @return Number of borrows served by an idle FSM
+     */
+    public long getHitCount() { return this._hits.get(); }
+    
+    /**
+     * 
+     * @return Number of releases to the pool
+     */
+    public long getReleasedCount() { return this._released.get(); }
+    
+    /**
+     * 
+     * @return Number of released FSMs discarded as the pool was full
+     */
+    public long getDiscardedCount() { return this._discarded.get(); }
+    
+    /**
+     * 
+     * @return Number of FSMs currently borrowed and not yet released
+     */
+    public long getActiveCount() { 
+        return this._borrowed.get() - this._released.get(); 
+    }
+    
+    @Override
+    public String toString() {
+        return "FSMPool[idle=" + getIdleCount() + ", created=" + getCreatedCount()
+                + ", borrowed=" + getBorrowedCount() + ", hits=" + getHitCount()
+                + ", released=" + getReleasedCount() + ", discarded=" 
+                + getDiscardedCount() + "]";
+    }
+}
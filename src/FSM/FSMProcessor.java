@@ -0,0 +1,209 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import States.FSMTransitionResult;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Class adapts FSMs to reactive streams<br/>
+ * 
+ * <p>
+ * The processor subscribes to a publisher of {@link FSMEvent}s, has each
+ * event processed by the FSM its key resolves to, and publishes the
+ * {@link FSMTransitionResult} of every event to its own subscribers.<br/>
+ * Events are processed one at a time in the order received, hence results
+ * of an instance are delivered in order. Events are requested from
+ * upstream only while the processor has subscribers, and only as many as
+ * the slowest subscriber has room for in its buffer of the specified
+ * capacity; further events are requested as subscribers consume results.
+ * Slow subscribers thus throttle the upstream publisher, without blocking
+ * its delivery thread nor letting results pile up. Results of events 
+ * already requested when the last subscriber cancels are dropped.<br/>
+ * An event whose key resolves to no FSM yields an uncommitted result
+ * without transition. An event whose resolver or FSM throws yields a 
+ * failed result bearing the exception, see 
+ * {@link FSMTransitionResult#failed}; the stream goes on with the next 
+ * event, so that one failing instance does not end it for every key.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMProcessor extends SubmissionPublisher<FSMTransitionResult>
+        implements Flow.Processor<FSMEvent, FSMTransitionResult> {
+    
+    private final Function<Object, FSM> _resolver;
+    private final int _bufferSize;
+    private Flow.Subscription _subscription;
+    /*
+     * Events requested from upstream and not yet received; guarded by _lock
+     */
+    private long _outstanding;
+    private final ReentrantLock _lock = new ReentrantLock();
+    
+    /**
+     * Constructor creates a processor for FSM instances resolved by key<br/>
+     * 
+     * @param resolver   Function returning the FSM of an event's key
+     * @param executor   Executor delivering results to subscribers
+     * @param bufferSize Maximum number of results buffered per subscriber, 
+     *                   and number of events requested ahead from upstream
+     */
+    public FSMProcessor(Function<Object, FSM> resolver, Executor executor, 
+            int bufferSize) {
+        super(executor, bufferSize);
+        this._resolver = resolver;
+        this._bufferSize = bufferSize;
+    }
+    
+    /**
+     * Constructor creates a processor for FSM instances resolved by key,
+     * delivering results on the common pool<br/>
+     * 
+     * @param resolver   Function returning the FSM of an event's key
+     */
+    public FSMProcessor(Function<Object, FSM> resolver) {
+        this(resolver, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+    
+    /**
+     * Constructor creates a processor for a single FSM; keys of events are
+     * ignored<br/>
+     * 
+     * @param fsm        FSM processing all events
+     * @param executor   Executor delivering results to subscribers
+     * @param bufferSize Maximum number of results buffered per subscriber
+     */
+    public FSMProcessor(final FSM fsm, Executor executor, int bufferSize) {
+        this(new Function<Object, FSM>() {
+            @Override
+            public FSM apply(Object key) { return fsm; }
+        }, executor, bufferSize);
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this._subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this._subscription = subscription;
+        demand();
+    }
+    
+    /**
+     * Method subscribes a subscriber to the results; events are requested
+     * from upstream once a subscriber is present, and as results are
+     * consumed<br/>
+     * 
+     * @param subscriber Subscriber of the results
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super FSMTransitionResult> subscriber) {
+        super.subscribe(new Flow.Subscriber<FSMTransitionResult>() {
+            @Override
+            public void onSubscribe(final Flow.Subscription s) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) { s.request(n); }
+                    @Override
+                    public void cancel() {
+                        s.cancel();
+                        demand();
+                    }
+                });
+            }
+            @Override
+            public void onNext(FSMTransitionResult item) {
+                subscriber.onNext(item);
+                demand();
+            }
+            @Override
+            public void onError(Throwable throwable) { subscriber.onError(throwable); }
+            @Override
+            public void onComplete() { subscriber.onComplete(); }
+        });
+        demand();
+    }
+    
+    /*
+     * Requests from upstream as many events as the most lagging subscriber
+     * has room for, less those already requested
+     */
+    private void demand() {
+        this._lock.lock();
+        try {
+            if (this._subscription == null || isClosed() || !hasSubscribers()) return;
+            long n = this._bufferSize - estimateMaximumLag() - this._outstanding;
+            if (n <= 0) return;
+            this._outstanding += n;
+            this._subscription.request(n);
+        } finally {
+            this._lock.unlock();
+        }
+    }
+    
+    @Override
+    public void onNext(FSMEvent event) {
+        this._lock.lock();
+        try {
+            this._outstanding--;
+        } finally {
+            this._lock.unlock();
+        }
+        FSMTransitionResult _r;
+        String _from = null;
+        try {
+            FSM f = this._resolver.apply(event.getKey());
+            if (f == null) {
+                _r = new FSMTransitionResult(event.getKey(), null, 
+                        event.getMessage(), null, false);
+            } else {
+                _from = f.getCurrentState();
+                _r = f.process(event.getMessage()).withKey(event.getKey());
+            }
+        } catch (RuntimeException ex) {
+            _r = FSMTransitionResult.failed(event.getKey(), _from, 
+                    event.getMessage(), ex);
+        }
+        /* Does not block, as no more events are requested than there is
+           room for; a result submitted without subscriber is dropped */
+        if (submit(_r) < this._bufferSize) demand();
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+    
+    @Override
+    public void onComplete() {
+        close();
+    }
+}
@@ -0,0 +1,426 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Action.FSMAction;
+import States.FSMDefinition;
+import States.FSMState;
+import States.FSMTransitionInfo;
+import States.FSMTransitionResult;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class implements a recognizer of symbol streams<br/>
+ * 
+ * <p>
+ * The messages of the definition are taken as symbols: a message whose id
+ * is a single character is received for that character, or for the byte of
+ * that value; a message of id "*" is received for any other symbol. Bytes
+ * of a {@link ByteBuffer}, direct and memory-mapped buffers included, of a
+ * {@link ReadableByteChannel}, or characters of a {@link CharSequence} are 
+ * then processed in place, one symbol after another, without a message 
+ * being created for each of them.<br/>
+ * The transitions are compiled into a table indexed by state and symbol 
+ * when the recognizer is created; actions and hooks shall hence be bound to 
+ * the definition before. Symbols from 256 on are looked up in a sparse 
+ * index instead, so that a message of a high character does not widen the
+ * table of every state. If no action or hook is bound, a symbol costs a 
+ * single lookup; otherwise symbols are processed by a {@link FSM}, running its
+ * actions and hooks as usual.<br/>
+ * Input can be fed in chunks: the recognizer keeps its state and position
+ * from one chunk to the next.
+ * <ul>
+ *  <li>On a transition into an accepting state, the listener is told the
+ *      position after the symbol, counted from the start of the stream.
+ *  <li>On a symbol having no transition, the listener is told its position
+ *      and the recognizer returns to the initial state, to go on with the
+ *      next symbol.
+ * </ul>
+ * A listener can {@link #pause()} the recognizer, which then stops right
+ * after the current symbol, leaving the rest of the input unconsumed until
+ * it is resumed.<br/>
+ * A recognizer is not thread-safe.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMRecognizer {
+    
+    /**
+     * Interface to be implemented to receive the outcome of recognition
+     */
+    public interface Listener {
+        /**
+         * Called on a transition into an accepting state
+         * 
+         * @param r Recognizer
+         * @param state Accepting state
+         * @param position Number of symbols consumed, this one included
+         */
+        void accept(FSMRecognizer r, String state, long position);
+        
+        /**
+         * Called on a symbol having no transition in the current state
+         * 
+         * @param r Recognizer
+         * @param state State the symbol was received in
+         * @param symbol Rejected symbol
+         * @param position Number of symbols consumed, this one included
+         */
+        void reject(FSMRecognizer r, String state, int symbol, long position);
+    }
+    
+    private final FSMDefinition _definition;
+    private final Listener _listener;
+    private final String[] _names;
+    private final boolean[] _accepting;
+    /*
+     * Table width is capped, so that a message of a high character does not
+     * size the table of every state after it
+     */
+    private static final int MAX_WIDTH = 256;
+    
+    /*
+     * Next state by state and symbol below _width, by state for symbols of
+     * a message at or above it, and by state for any other symbol; -1, if
+     * the symbol is rejected. _sparse is null, if no message is that high.
+     */
+    private final int _width;
+    private final int[] _table;
+    private final Map<Integer, int[]> _sparse;
+    private final int[] _default;
+    /*
+     * FSM running actions and hooks; null, if none is bound
+     */
+    private final FSM _fsm;
+    private final String[] _symbols;
+    
+    private int _state;
+    private long _position;
+    private boolean _paused;
+    
+    /**
+     * This Constructor allows to create a recognizer of a definition<br/>
+     * 
+     * @param definition Definition whose single character messages are 
+     *                   taken as symbols
+     * @param action Default action, as of {@link FSM}; can be null
+     * @param accepting Names of the accepting states
+     * @param listener Listener of accepted and rejected positions
+     */
+    public FSMRecognizer(FSMDefinition definition, FSMAction action, 
+            Collection<String> accepting, Listener listener) {
+        this._definition = definition;
+        this._listener = listener;
+        List<FSMState> _all = definition.getAllStates();
+        int n = _all.size();
+        this._names = new String[n];
+        this._accepting = new boolean[n];
+        
+        int width = 0;
+        HashMap<Integer, int[]> sparse = new HashMap<Integer, int[]>();
+        boolean bound = action != null;
+        for (int s = 0; s < n; s++) {
+            FSMState st = _all.get(s);
+            this._names[s] = st.getCurrentState();
+            bound |= st.getBeforeTransition() != null 
+                    || st.getAfterTransition() != null;
+            Map<String, FSMTransitionInfo> _t = st.getNewTransitionMap();
+            if (_t == null) continue;
+            for (Map.Entry<String, FSMTransitionInfo> e : _t.entrySet()) {
+                String m = e.getKey();
+                if (m.length() == 1) {
+                    if (m.charAt(0) < MAX_WIDTH) {
+                        width = Math.max(width, m.charAt(0) + 1);
+                    } else {
+                        sparse.put((int) m.charAt(0), null);
+                    }
+                }
+                bound |= e.getValue().getAction() != null;
+            }
+            /* No message is null, leaving the transition on any message */
+            FSMTransitionInfo _d = st.getTransition(null);
+            bound |= _d != null && _d.getAction() != null;
+        }
+        for (String a : accepting) {
+            FSMState st = definition.getState(a);
+            if (st != null) this._accepting[st.getOrdinal()] = true;
+        }
+        
+        this._width = width;
+        this._table = new int[n * width];
+        this._default = new int[n];
+        this._symbols = new String[width];
+        for (int c = 0; c < width; c++) this._symbols[c] = String.valueOf((char) c);
+        for (Map.Entry<Integer, int[]> e : sparse.entrySet()) {
+            e.setValue(new int[n]);
+        }
+        for (int s = 0; s < n; s++) {
+            FSMState st = _all.get(s);
+            this._default[s] = target(s, st.getTransition(null));
+            for (int c = 0; c < width; c++) {
+                this._table[s * width + c] = target(s, st.getTransition(this._symbols[c]));
+            }
+            for (Map.Entry<Integer, int[]> e : sparse.entrySet()) {
+                e.getValue()[s] = target(s, 
+                        st.getTransition(String.valueOf((char) e.getKey().intValue())));
+            }
+        }
+        this._sparse = sparse.isEmpty() ? null : sparse;
+        this._fsm = bound ? new FSM(definition, action) : null;
+    }
+    
+    /**
+     * This Constructor allows to create a recognizer of a definition having
+     * no default action<br/>
+     * 
+     * @param definition Definition whose single character messages are 
+     *                   taken as symbols
+     * @param accepting Names of the accepting states
+     * @param listener Listener of accepted and rejected positions
+     */
+    public FSMRecognizer(FSMDefinition definition, 
+            Collection<String> accepting, Listener listener) {
+        this(definition, null, accepting, listener);
+    }
+    
+    /*
+     * A transition to an unknown state is never taken, as by FSM
+     */
+    private int target(int s, FSMTransitionInfo t) {
+        if (t == null) return -1;
+        FSMState next = this._definition.getState(t.getNextState());
+        return next == null ? s : next.getOrdinal();
+    }
+    
+    /*
+     * Next state on a symbol at or above the table width
+     */
+    private int beyond(int s, int c) {
+        if (this._sparse != null) {
+            int[] r = this._sparse.get(c);
+            if (r != null) return r[s];
+        }
+        return this._default[s];
+    }
+    
+    /**
+     * Method consumes the remaining bytes of a buffer, up to its limit or
+     * until the recognizer is paused<br/>
+     * The position of the buffer is advanced past the consumed bytes.<br/>
+     * 
+     * @param buffer Buffer of symbols
+     * @return Number of bytes consumed
+     */
+    public int feed(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (this._fsm != null) {
+            while (!this._paused && buffer.hasRemaining()) {
+                step(buffer.get() & 0xFF);
+            }
+            return buffer.position() - start;
+        }
+        int s = this._state;
+        int w = this._width;
+        /* position of the buffer at which _position was last brought up */
+        int mark = start;
+        while (!this._paused && buffer.hasRemaining()) {
+            int c = buffer.get() & 0xFF;
+            int nx = c < w ? this._table[s * w + c] : beyond(s, c);
+            if (nx < 0 || this._accepting[nx]) {
+                this._state = s;
+                this._position += buffer.position() - mark;
+                mark = buffer.position();
+                nx = signal(nx, c);
+            }
+            s = nx;
+        }
+        this._state = s;
+        this._position += buffer.position() - mark;
+        return buffer.position() - start;
+    }
+    
+    /**
+     * Method consumes characters of a sequence, up to the end index or 
+     * until the recognizer is paused<br/>
+     * 
+     * @param chars Sequence of symbols
+     * @param start Index of the first character to consume
+     * @param end Index after the last character to consume
+     * @return Index after the last consumed character
+     */
+    public int feed(CharSequence chars, int start, int end) {
+        int i = start;
+        if (this._fsm != null) {
+            while (!this._paused && i < end) step(chars.charAt(i++));
+            return i;
+        }
+        int s = this._state;
+        int w = this._width;
+        long base = this._position - start;
+        while (!this._paused && i < end) {
+            int c = chars.charAt(i++);
+            int nx = c < w ? this._table[s * w + c] : beyond(s, c);
+            if (nx < 0 || this._accepting[nx]) {
+                this._state = s;
+                this._position = base + i;
+                nx = signal(nx, c);
+            }
+            s = nx;
+        }
+        this._state = s;
+        this._position = base + i;
+        return i;
+    }
+    
+    /**
+     * Method consumes all characters of a sequence, or until the recognizer
+     * is paused<br/>
+     * 
+     * @param chars Sequence of symbols
+     * @return Index after the last consumed character
+     */
+    public int feed(CharSequence chars) { return feed(chars, 0, chars.length()); }
+    
+    /**
+     * Method reads bytes of a channel into the buffer and consumes them, 
+     * until the end of the stream, until the channel has no bytes available
+     * or until the recognizer is paused<br/>
+     * The buffer is kept in filling mode between calls: bytes left 
+     * unconsumed by a pause are those before its position, and are consumed
+     * first on the next call. A new buffer shall hence be empty.<br/>
+     * 
+     * @param channel Channel of symbols
+     * @param buffer Buffer to read the channel into
+     * @return Number of bytes consumed; -1, if the stream has ended and all
+     *         of its bytes are consumed
+     * @throws IOException
+     */
+    public long feed(ReadableByteChannel channel, ByteBuffer buffer) 
+            throws IOException {
+        long n = 0;
+        while (!this._paused) {
+            int r = buffer.hasRemaining() ? channel.read(buffer) : 0;
+            if (buffer.position() == 0) return r < 0 && n == 0 ? -1 : n;
+            buffer.flip();
+            n += feed(buffer);
+            buffer.compact();
+        }
+        return n;
+    }
+    
+    /*
+     * Tells the listener of a rejected symbol, or of the accepting state 
+     * reached; returns the state to go on from
+     */
+    private int signal(int nx, int c) {
+        if (nx < 0) {
+            if (this._listener != null) {
+                this._listener.reject(this, this._names[this._state], c, this._position);
+            }
+            nx = 0;
+        } else if (this._listener != null) {
+            this._state = nx;
+            this._listener.accept(this, this._names[nx], this._position);
+        }
+        this._state = nx;
+        return nx;
+    }
+    
+    /*
+     * Processes one symbol by the FSM, running its actions and hooks
+     */
+    private void step(int c) {
+        this._position++;
+        String m = c < this._width ? this._symbols[c] : String.valueOf((char) c);
+        FSMTransitionResult r = this._fsm.process(m);
+        if (r.getTransition() == null) {
+            signal(-1, c);
+            this._fsm.setCurrentState(this._names[0]);
+        } else if (r.isCommitted()) {
+            int nx = this._definition.getState(this._fsm.getCurrentState()).getOrdinal();
+            this._state = nx;
+            if (this._accepting[nx]) signal(nx, c);
+        }
+    }
+    
+    /**
+     * Method stops the recognizer after the current symbol<br/>
+     * Meant to be called by the listener.<br/>
+     */
+    public void pause() { this._paused = true; }
+    
+    /**
+     * Method allows the recognizer to consume input again<br/>
+     */
+    public void resume() { this._paused = false; }
+    
+    /**
+     * 
+     * @return true, iff recognizer is paused
+     */
+    public boolean isPaused() { return this._paused; }
+    
+    /**
+     * Method returns the recognizer to the initial state and to the start
+     * of a stream<br/>
+     */
+    public void reset() {
+        this._state = 0;
+        this._position = 0;
+        this._paused = false;
+        if (this._fsm != null) this._fsm.setCurrentState(this._names[0]);
+    }
+    
+    /**
+     * 
+     * @return Number of symbols consumed from the start of the stream
+     */
+    public long getPosition() { return this._position; }
+    
+    /**
+     * 
+     * @return Current state
+     */
+    public String getCurrentState() { return this._names[this._state]; }
+    
+    /**
+     * 
+     * @return true, iff current state is accepting
+     */
+    public boolean isAccepting() { return this._accepting[this._state]; }
+    
+    /**
+     * 
+     * @return true, iff symbols are processed by table lookup alone, no 
+     *         action or hook being bound
+     */
+    public boolean isDirect() { return this._fsm == null; }
+}
@@ -0,0 +1,279 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Action.FSMAction;
+import States.FSMDefinition;
+import States.FSMDefinitions;
+import States.FSMTransitionResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class implements a FSM made of orthogonal regions<br/>
+ * 
+ * <p>
+ * Each region is a FSM of its own definition, modelling one independent
+ * aspect of the machine, such as its connection or its power. A message is
+ * dispatched to every region, and each region takes its own transition on
+ * it, if any.<br/>
+ * Regions are processed on the caller's thread, one after another, except
+ * those set parallel, whose actions are expensive: these are processed 
+ * together on the executor, the common pool by default, while the others 
+ * are processed by the caller. {@link #process(String)} returns when all 
+ * regions are done.<br/>
+ * Messages are processed one at a time. The combined state of the regions
+ * is published once all regions have processed a message, so that 
+ * {@link #getStates()} never reports some regions before a message and 
+ * others after it.<br/>
+ * Regions are added before the FSM is used, and their FSMs shall not be 
+ * given messages directly. All other methods can be called concurrently.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMRegions {
+    
+    private String[] _names = new String[0];
+    private FSM[] _regions = new FSM[0];
+    private boolean[] _parallel = new boolean[0];
+    private volatile Executor _executor = ForkJoinPool.commonPool();
+    private final ReentrantLock _lock = new ReentrantLock();
+    /*
+     * States of the regions after the last message
+     */
+    private volatile String[] _states = new String[0];
+    
+    /**
+     * This Constructor allows to create a FSM without regions, to which 
+     * regions are then added<br/>
+     */
+    public FSMRegions() { }
+    
+    /**
+     * This Constructor allows to create a FSM having a region per named 
+     * definition, in configuration order<br/>
+     * 
+     * @param definitions Named definitions of the regions
+     * @param action Default action of every region
+     */
+    public FSMRegions(FSMDefinitions definitions, FSMAction action) {
+        for (Object name : definitions.getNames()) {
+            addRegion((String) name, definitions.getDefinition((String) name), action);
+        }
+    }
+    
+    /**
+     * Method adds a region<br/>
+     * 
+     * @param name Name of the region
+     * @param definition Definition of the region
+     * @param action Default action of the region
+     * @return FSM of the region
+     * @throws IllegalArgumentException if a region of the name exists
+     */
+    public FSM addRegion(String name, FSMDefinition definition, 
+            FSMAction action) {
+        this._lock.lock();
+        try {
+            if (Arrays.asList(this._names).contains(name)) {
+                throw new IllegalArgumentException("Region " + name + " exists");
+            }
+            int n = this._names.length;
+            FSM fsm = new FSM(definition, action);
+            this._names = Arrays.copyOf(this._names, n + 1);
+            this._regions = Arrays.copyOf(this._regions, n + 1);
+            this._parallel = Arrays.copyOf(this._parallel, n + 1);
+            this._names[n] = name;
+            this._regions[n] = fsm;
+            publish();
+            return fsm;
+        } finally {
+            this._lock.unlock();
+        }
+    }
+    
+    /**
+     * Method sets if a region is processed on the executor, in parallel 
+     * with the other regions<br/>
+     * 
+     * @param name Name of the region
+     * @param parallel true, if the actions of the region are expensive
+     */
+    public void setParallel(String name, boolean parallel) {
+        this._lock.lock();
+        try {
+            this._parallel[index(name)] = parallel;
+        } finally {
+            this._lock.unlock();
+        }
+    }
+    
+    /**
+     * Method sets the executor processing the parallel regions<br/>
+     * 
+     * @param executor Executor
+     */
+    public void setExecutor(Executor executor) { this._executor = executor; }
+    
+    /**
+     * Method dispatches a message to every region<br/>
+     * If the processing of regions throws, the first exception is thrown 
+     * once all regions are done.<br/>
+     * 
+     * @param message Received message
+     * @return Result of each region, keyed by the name of the region, in 
+     *         the order regions were added
+     */
+    public List<FSMTransitionResult> process(final String message) {
+        this._lock.lock();
+        try {
+            final FSM[] _r = this._regions;
+            final FSMTransitionResult[] _res = new FSMTransitionResult[_r.length];
+            List<CompletableFuture<Void>> _f = null;
+            for (int i = 0; i < _r.length; i++) {
+                if (!this._parallel[i]) continue;
+                final int n = i;
+                if (_f == null) _f = new ArrayList<CompletableFuture<Void>>();
+                _f.add(CompletableFuture.runAsync(
+                        () -> _res[n] = _r[n].process(message), this._executor));
+            }
+            RuntimeException _e = null;
+            for (int i = 0; i < _r.length; i++) {
+                if (this._parallel[i]) continue;
+                try {
+                    _res[i] = _r[i].process(message);
+                } catch (RuntimeException ex) {
+                    if (_e == null) _e = ex;
+                }
+            }
+            if (_f != null) {
+                for (CompletableFuture<Void> f : _f) {
+                    try {
+                        f.join();
+                    } catch (CompletionException ex) {
+                        if (_e == null) {
+                            _e = ex.getCause() instanceof RuntimeException ?
+                                    (RuntimeException) ex.getCause() : ex;
+                        }
+                    }
+                }
+            }
+            publish();
+            if (_e != null) throw _e;
+            
+            List<FSMTransitionResult> _l = new ArrayList<FSMTransitionResult>(_r.length);
+            for (int i = 0; i < _r.length; i++) _l.add(_res[i].withKey(this._names[i]));
+            return _l;
+        } finally {
+            this._lock.unlock();
+        }
+    }
+    
+    /*
+     * Publishes the states of the regions
+     */
+    private void publish() {
+        FSM[] _r = this._regions;
+        String[] _s = new String[_r.length];
+        for (int i = 0; i < _r.length; i++) _s[i] = _r[i].getCurrentState();
+        this._states = _s;
+    }
+    
+    private int index(String name) {
+        int i = Arrays.asList(this._names).indexOf(name);
+        if (i < 0) throw new IllegalArgumentException("No region named " + name);
+        return i;
+    }
+    
+    /**
+     * Method returns the states of all regions after the same message<br/>
+     * 
+     * @return State of each region, keyed by the name of the region
+     */
+    public Map<String, String> getStates() {
+        String[] _s = this._states;
+        String[] _n = this._names;
+        Map<String, String> _m = new LinkedHashMap<String, String>();
+        for (int i = 0; i < _s.length; i++) _m.put(_n[i], _s[i]);
+        return Collections.unmodifiableMap(_m);
+    }
+    
+    /**
+     * 
+     * @param name Name of the region
+     * @return State of the region
+     */
+    public String getState(String name) { return this._states[index(name)]; }
+    
+    /**
+     * 
+     * @param name Name of the region
+     * @return FSM of the region, as to bind actions to it
+     */
+    public FSM getRegion(String name) { return this._regions[index(name)]; }
+    
+    /**
+     * 
+     * @return Names of the regions, in the order they were added
+     */
+    public List<String> getRegionNames() { 
+        return Collections.unmodifiableList(Arrays.asList(this._names)); 
+    }
+    
+    /**
+     * Method sets the shared data of every region<br/>
+     * 
+     * @param data Shared data
+     */
+    public void setShareData(Object data) {
+        for (FSM f : this._regions) f.setShareData(data);
+    }
+    
+    /**
+     * Method returns every region to its initial state, clearing its 
+     * shared data<br/>
+     */
+    public void reset() {
+        this._lock.lock();
+        try {
+            for (FSM f : this._regions) f.reset();
+            publish();
+        } finally {
+            this._lock.unlock();
+        }
+    }
+    
+    @Override
+    public String toString() { return getStates().toString(); }
+}
@@ -0,0 +1,128 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import Action.FSMAction;
+import States.FSMDefinition;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class implements a registry of shared FSM definitions<br/>
+ * 
+ * <p>
+ * A FSM created from a registered definition is serialized in a compact
+ * form: only the identifier of its definition and the ordinal of its
+ * current state are written. On deserialization the FSM is attached again
+ * to the registered definition, along with the actions bound to it and 
+ * the registered default action.<br/>
+ * The definition must be registered under the same identifier in the
+ * reading JVM before the FSM is read.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public final class FSMRegistry {
+    
+    private static final ConcurrentHashMap<String, Object[]> _registry = 
+            new ConcurrentHashMap<String, Object[]>();
+    private static final IdentityHashMap<FSMDefinition, String> _ids = 
+            new IdentityHashMap<FSMDefinition, String>();
+    
+    private FSMRegistry() {}
+    
+    /**
+     * Method registers a definition under the specified identifier<br/>
+     * Any definition previously registered under this identifier is replaced.<br/>
+     * 
+     * @param id         Identifier of the definition
+     * @param definition Definition to be registered
+     * @param action     Default action of FSMs of this definition; can be null
+     */
+    public static void register(String id, FSMDefinition definition, 
+            FSMAction action) {
+        synchronized (_ids) {
+            Object[] _p = _registry.put(id, new Object[] { definition, action });
+            if (_p != null) _ids.remove((FSMDefinition) _p[0]);
+            _ids.put(definition, id);
+        }
+    }
+    
+    /**
+     * Method registers a named definition under its name<br/>
+     * 
+     * @param definition Definition to be registered
+     * @param action     Default action of FSMs of this definition; can be null
+     * @throws IllegalArgumentException if the definition is not named
+     */
+    public static void register(FSMDefinition definition, FSMAction action) {
+        if (definition.getName() == null) {
+            throw new IllegalArgumentException("Definition has no name");
+        }
+        register(definition.getName(), definition, action);
+    }
+    
+    /**
+     * Method removes the definition registered under the specified identifier<br/>
+     * 
+     * @param id Identifier of the definition
+     */
+    public static void unregister(String id) {
+        synchronized (_ids) {
+            Object[] _p = _registry.remove(id);
+            if (_p != null) _ids.remove((FSMDefinition) _p[0]);
+        }
+    }
+    
+    /**
+     * 
+     * @param id Identifier of the definition
+     * @return Registered definition; null, if none is registered
+     */
+    public static FSMDefinition getDefinition(String id) {
+        Object[] _p = _registry.get(id);
+        return _p == null ? null : (FSMDefinition) _p[0];
+    }
+    
+    /**
+     * 
+     * @param id Identifier of the definition
+     * @return Registered default action; null, if none is registered
+     */
+    public static FSMAction getAction(String id) {
+        Object[] _p = _registry.get(id);
+        return _p == null ? null : (FSMAction) _p[1];
+    }
+    
+    /**
+     * 
+     * @param definition A definition
+     * @return Identifier the definition is registered under; null, if none
+     */
+    public static String getId(FSMDefinition definition) {
+        synchronized (_ids) {
+            return _ids.get(definition);
+        }
+    }
+}
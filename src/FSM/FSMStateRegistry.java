@@ -0,0 +1,222 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import States.FSMDefinition;
+import States.FSMState;
+import States.FSMTransitionResult;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class implements a registry of FSM instances indexed by their current 
+ * state<br/>
+ * 
+ * <p>
+ * Instances of one definition are kept in one bucket per state, and moved
+ * from bucket to bucket as they commit transitions, so that the instances 
+ * in a state are known without looking at every instance. The number of
+ * instances in each state is kept by a striped counter, which threads 
+ * moving instances update without contending with each other.<br/>
+ * The registry follows an instance as its {@link FSMTransitionListener};
+ * an instance can hence be in one registry only, and shall not be given
+ * another listener. Instances shall be registered after the definition is
+ * minimized, if it is.<br/>
+ * All methods can be called concurrently.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMStateRegistry implements FSMTransitionListener {
+    
+    private final FSMDefinition _definition;
+    /*
+     * Instances and their number, by ordinal of the state
+     */
+    private final List<Set<FSM>> _members;
+    private final LongAdder[] _counts;
+    /*
+     * State whose bucket each registered instance is in; an instance is 
+     * moved under the lock of its entry, so that a change racing with its
+     * registration cannot leave it in two buckets
+     */
+    private final ConcurrentMap<FSM, FSMState> _buckets;
+    
+    /**
+     * 
+     * @param definition Definition of the registered instances
+     */
+    public FSMStateRegistry(FSMDefinition definition) {
+        this._definition = definition;
+        int n = definition.getAllStates().size();
+        this._members = new ArrayList<Set<FSM>>(n);
+        this._counts = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            this._members.add(ConcurrentHashMap.<FSM>newKeySet());
+            this._counts[i] = new LongAdder();
+        }
+        this._buckets = new ConcurrentHashMap<FSM, FSMState>();
+    }
+    
+    /**
+     * Method adds an instance to the registry, in the bucket of its current
+     * state<br/>
+     * 
+     * @param fsm Instance of the definition
+     * @throws IllegalArgumentException if the instance is of another 
+     *         definition, or already has another listener
+     */
+    public void register(FSM fsm) {
+        if (fsm.getDefinition() != this._definition) {
+            throw new IllegalArgumentException("FSM is of another definition");
+        }
+        FSMTransitionListener l = fsm.getTransitionListener();
+        if (l != null && l != this) {
+            throw new IllegalArgumentException("FSM already has a listener");
+        }
+        fsm.setTransitionListener(this);
+        /*
+         * The state is read once the listener is set: a transition 
+         * committed before is seen here, one committed after is told
+         */
+        this._buckets.compute(fsm, (f, old) -> 
+                move(f, old, this._definition.getState(f.getCurrentState())));
+    }
+    
+    /**
+     * Method removes an instance from the registry<br/>
+     * 
+     * @param fsm Registered instance
+     */
+    public void unregister(FSM fsm) {
+        if (fsm.getTransitionListener() != this) return;
+        fsm.setTransitionListener(null);
+        this._buckets.computeIfPresent(fsm, (f, old) -> move(f, old, null));
+    }
+    
+    /**
+     * Removes an instance released to a pool from the registry<br/>
+     * 
+     * @param fsm Instance no longer followed
+     */
+    @Override
+    public void detached(FSM fsm) {
+        this._buckets.computeIfPresent(fsm, (f, old) -> move(f, old, null));
+    }
+    
+    @Override
+    public void stateChanged(FSM fsm, FSMState from, FSMState to) {
+        if (from == to) return;
+        /* an instance not, or no longer, registered is not added */
+        this._buckets.computeIfPresent(fsm, (f, old) -> move(f, old, to));
+    }
+    
+    /*
+     * Moves an instance from the bucket of a state to that of another; 
+     * either can be null
+     */
+    private FSMState move(FSM fsm, FSMState from, FSMState to) {
+        if (from == to) return to;
+        if (from != null) {
+            int i = from.getOrdinal();
+            if (this._members.get(i).remove(fsm)) this._counts[i].decrement();
+        }
+        if (to != null) {
+            int i = to.getOrdinal();
+            if (this._members.get(i).add(fsm)) this._counts[i].increment();
+        }
+        return to;
+    }
+    
+    private int ordinal(String state) {
+        FSMState _s = this._definition.getState(state);
+        if (_s == null) {
+            throw new IllegalArgumentException("No state named " + state);
+        }
+        return _s.getOrdinal();
+    }
+    
+    /**
+     * 
+     * @param state Name of the state
+     * @return Number of registered instances in the state
+     */
+    public long count(String state) { return this._counts[ordinal(state)].sum(); }
+    
+    /**
+     * 
+     * @return Number of registered instances in each state, in 
+     *         configuration order
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> _m = new LinkedHashMap<String, Long>();
+        List<?> _s = this._definition.getAllStates();
+        for (int i = 0; i < this._counts.length; i++) {
+            _m.put(((FSMState) _s.get(i)).getCurrentState(), this._counts[i].sum());
+        }
+        return _m;
+    }
+    
+    /**
+     * 
+     * @return Number of registered instances
+     */
+    public long size() {
+        long n = 0;
+        for (LongAdder c : this._counts) n += c.sum();
+        return n;
+    }
+    
+    /**
+     * 
+     * @param state Name of the state
+     * @return Registered instances in the state
+     */
+    public List<FSM> members(String state) {
+        return new ArrayList<FSM>(this._members.get(ordinal(state)));
+    }
+    
+    /**
+     * Method processes a message on every registered instance in a state<br/>
+     * The instances are those in the state when the method is called; an 
+     * instance which leaves the state meanwhile still receives the 
+     * message.<br/>
+     * 
+     * @param state Name of the state
+     * @param message Message to be processed
+     * @return Results of the transitions, one per instance
+     */
+    public List<FSMTransitionResult> broadcast(String state, String message) {
+        FSM[] _m = this._members.get(ordinal(state)).toArray(new FSM[0]);
+        List<FSMTransitionResult> _r = new ArrayList<FSMTransitionResult>(_m.length);
+        for (FSM f : _m) _r.add(f.process(message));
+        return _r;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import States.FSMState;
+
+/**
+ * Interface to be implemented to follow the state changes of a FSM<br/>
+ * 
+ * <p>
+ * The listener is called on every committed transition, after the current
+ * state is set and before the after-transition methods are invoked, as 
+ * well as when the state is set or reset directly. It is called by the 
+ * thread changing the state, and in concurrent mode while the transition 
+ * holds the lock of the FSM; it shall hence be short.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public interface FSMTransitionListener {
+    /**
+     * 
+     * @param fsm FSM whose state changed
+     * @param from Previous state
+     * @param to New state
+     */
+    public void stateChanged(FSM fsm, FSMState from, FSMState to);
+    
+    /**
+     * Called when the listener is dropped by the FSM, as it is released to
+     * a {@link FSMPool}; the FSM is not followed any further<br/>
+     * 
+     * @param fsm FSM no longer followed
+     */
+    public default void detached(FSM fsm) { }
+}
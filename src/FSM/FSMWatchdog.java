@@ -0,0 +1,219 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package FSM;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class implements a watchdog of transitions exceeding their time budget<br/>
+ * 
+ * <p>
+ * A FSM given a time budget by {@link FSM#setTimeBudget} registers each of
+ * its transitions with the watchdog while the transition runs. The watchdog
+ * checks the running transitions periodically, and reports a transition
+ * once when it has run longer than its budget, naming the callback it is
+ * stuck in, so that a slow action is noticed while it still runs. A 
+ * transition which exceeded its budget between two checks is reported when
+ * it completes.<br/>
+ * Overruns are reported to the listener, or logged if none is set. The
+ * listener is called by the watchdog thread or by the FSM's caller, and 
+ * shall not block.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMWatchdog {
+    
+    private static final Logger LOG = Logger.getLogger(FSMWatchdog.class.getName());
+    
+    /**
+     * Interface to be implemented to receive overruns
+     */
+    public interface Listener {
+        /**
+         * Called once per transition exceeding its budget
+         * 
+         * @param t Transition
+         * @param elapsedNanos Time the transition has run
+         * @param completed true, iff the transition has completed
+         */
+        void overrun(Transition t, long elapsedNanos, boolean completed);
+    }
+    
+    /**
+     * A transition being watched
+     */
+    public static final class Transition {
+        private final FSM _fsm;
+        private final String _state;
+        private final String _message;
+        private final Thread _thread;
+        private final long _start;
+        private final long _budget;
+        private volatile String _callback;
+        private boolean _reported;
+        
+        Transition(FSM fsm, String state, String message, long budget) {
+            this._fsm = fsm;
+            this._state = state;
+            this._message = message;
+            this._thread = Thread.currentThread();
+            this._start = System.nanoTime();
+            this._budget = budget;
+        }
+        
+        /*
+         * Records the callback being run
+         */
+        void enter(String callback) { this._callback = callback; }
+        
+        private synchronized boolean markReported() {
+            if (this._reported) return false;
+            return this._reported = true;
+        }
+        
+        public FSM getFSM() { return this._fsm; }
+        
+        /**
+         * @return State the message was received in
+         */
+        public String getState() { return this._state; }
+        
+        public String getMessage() { return this._message; }
+        
+        /**
+         * @return Thread running the transition
+         */
+        public Thread getThread() { return this._thread; }
+        
+        public long getBudgetNanos() { return this._budget; }
+        
+        /**
+         * @return Callback being run, as "before", "entry", "action", 
+         *         "afterTransition", "exit" or "after"
+         */
+        public String getCallback() { return this._callback; }
+        
+        @Override
+        public String toString() {
+            return "transition of " + this._message + " in " + this._state 
+                    + ", in " + this._callback + " on " + this._thread.getName();
+        }
+    }
+    
+    private final Listener _listener;
+    private final Set<Transition> _running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService _timer;
+    private final AtomicLong _watched = new AtomicLong();
+    private final AtomicLong _overruns = new AtomicLong();
+    
+    /**
+     * 
+     * @param periodMillis Interval at which running transitions are checked
+     * @param listener Listener of overruns; null, to log them
+     */
+    public FSMWatchdog(long periodMillis, Listener listener) {
+        this._listener = listener;
+        this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fsm-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        this._timer.scheduleWithFixedDelay(this::check, periodMillis, 
+                periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /*
+     * Registers a transition starting on the calling thread
+     */
+    Transition begin(FSM fsm, String state, String message, long budget) {
+        Transition t = new Transition(fsm, state, message, budget);
+        this._running.add(t);
+        this._watched.incrementAndGet();
+        return t;
+    }
+    
+    /*
+     * Unregisters a completed transition, reporting it if it exceeded its
+     * budget unnoticed
+     */
+    void end(Transition t) {
+        this._running.remove(t);
+        long elapsed = System.nanoTime() - t._start;
+        if (elapsed > t._budget && t.markReported()) report(t, elapsed, true);
+    }
+    
+    private void check() {
+        long now = System.nanoTime();
+        for (Transition t : this._running) {
+            long elapsed = now - t._start;
+            if (elapsed > t._budget && t.markReported()) report(t, elapsed, false);
+        }
+    }
+    
+    private void report(Transition t, long elapsed, boolean completed) {
+        this._overruns.incrementAndGet();
+        try {
+            if (this._listener != null) {
+                this._listener.overrun(t, elapsed, completed);
+            } else {
+                LOG.log(Level.WARNING, "{0} {1} its budget of {2} us after {3} us",
+                        new Object[] { t, completed ? "exceeded" : "exceeds",
+                        t._budget / 1000, elapsed / 1000 });
+            }
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "Watchdog listener failed", ex);
+        }
+    }
+    
+    /**
+     * 
+     * @return Number of transitions watched
+     */
+    public long getWatched() { return this._watched.get(); }
+    
+    /**
+     * 
+     * @return Number of transitions which exceeded their budget
+     */
+    public long getOverruns() { return this._overruns.get(); }
+    
+    /**
+     * 
+     * @return Number of transitions running
+     */
+    public int getRunning() { return this._running.size(); }
+    
+    /**
+     * Method stops the watchdog<br/>
+     */
+    public void shutdown() { this._timer.shutdownNow(); }
+}
@@ -0,0 +1,266 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+import Action.FSMAction;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class allows to build a FSM definition without a XML Configuration<br/>
+ * 
+ * <p>
+ * States are declared in turn, each followed by its transitions and hooks;
+ * the first state declared is the initial state. For instance, the FSM of
+ * the example configuration is built by:
+ * <pre>
+ * FSMDefinition d = new FSMBuilder()
+ *     .state("START")
+ *         .on("MOVE", "move", "START")
+ *         .on("MOVELEFT", "moveLeft", "INTERMEDIATE")
+ *         .on("MOVERIGHT", "moveRight", "STOP")
+ *     .state("INTERMEDIATE")
+ *         .on("MOVELEFT", "moveLeft", "STOP")
+ *     .state("STOP")
+ *         .on("MOVE", "move", "START")
+ *     .build();
+ * </pre>
+ * Transitions valid in any state are declared on {@link #anyState()}, and
+ * a message of id {@link FSMState#ANY} matches any message, as in a 
+ * configuration. Actions and hooks can be bound as transitions and states 
+ * are declared, or later on the definition. Extended-state variables are
+ * declared by {@link #var} and {@link #enumVar}.<br/>
+ * The states and transitions of the definition are created directly, as 
+ * when a configuration is read; a builder can build any number of 
+ * definitions, each having states of its own.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMBuilder {
+    
+    /*
+     * A declared state
+     */
+    private static final class Spec {
+        final String name;
+        final LinkedHashMap<String, FSMTransitionInfo> transitions = 
+                new LinkedHashMap<String, FSMTransitionInfo>();
+        FSMStateAction before;
+        FSMStateAction after;
+        Spec(String name) { this.name = name; }
+    }
+    
+    private final String _name;
+    private final LinkedHashMap<String, Spec> _states = new LinkedHashMap<String, Spec>();
+    private final Spec _any = new Spec(FSMState.ANY);
+    private final List<String[]> _vars = new ArrayList<String[]>();
+    private Spec _cur;
+    
+    /**
+     * This Constructor allows to build an unnamed definition<br/>
+     */
+    public FSMBuilder() { this(null); }
+    
+    /**
+     * This Constructor allows to build a named definition<br/>
+     * 
+     * @param name Name of the definition
+     */
+    public FSMBuilder(String name) { this._name = name; }
+    
+    /**
+     * Method declares a state, or returns to a state declared earlier; the
+     * following transitions and hooks are those of this state<br/>
+     * 
+     * @param state Name of the state; {@link FSMState#ANY} for the state 
+     *              holding transitions valid in any state
+     * @return this builder
+     */
+    public FSMBuilder state(String state) {
+        if (FSMState.ANY.equals(state)) return anyState();
+        Spec _s = this._states.get(state);
+        if (_s == null) {
+            _s = new Spec(state);
+            this._states.put(state, _s);
+        }
+        this._cur = _s;
+        return this;
+    }
+    
+    /**
+     * Method selects the state holding the transitions valid in any state;
+     * a transition declared on a state for the same message takes 
+     * precedence<br/>
+     * 
+     * @return this builder
+     */
+    public FSMBuilder anyState() {
+        this._cur = this._any;
+        return this;
+    }
+    
+    /**
+     * Method declares a transition of the current state<br/>
+     * 
+     * @param message Message, or {@link FSMState#ANY} for any message
+     *                having no transition of its own
+     * @param action Name of the action, as passed to the action methods
+     * @param nextState State attained on successful transition
+     * @return this builder
+     */
+    public FSMBuilder on(String message, String action, String nextState) {
+        return on(message, action, nextState, null);
+    }
+    
+    /**
+     * Method declares a transition of the current state, along with its
+     * action method<br/>
+     * 
+     * @param message Message, or {@link FSMState#ANY} for any message
+     *                having no transition of its own
+     * @param action Name of the action, as passed to the action methods
+     * @param nextState State attained on successful transition
+     * @param act Action method of the transition
+     * @return this builder
+     */
+    public FSMBuilder on(String message, String action, String nextState, 
+            FSMAction act) {
+        current().transitions.put(message, 
+                new FSMTransitionInfo(action, nextState, act));
+        return this;
+    }
+    
+    /**
+     * Method sets the method invoked before the action, when a transition
+     * into the current state is taken<br/>
+     * 
+     * @param act Entry method
+     * @return this builder
+     */
+    public FSMBuilder before(FSMStateAction act) {
+        stateOnly().before = act;
+        return this;
+    }
+    
+    /**
+     * Method sets the method invoked after the action, when a transition
+     * into the current state is taken<br/>
+     * 
+     * @param act Exit method
+     * @return this builder
+     */
+    public FSMBuilder after(FSMStateAction act) {
+        stateOnly().after = act;
+        return this;
+    }
+    
+    /**
+     * Method declares an extended-state variable of the definition<br/>
+     * 
+     * @param name Name of the variable
+     * @param type Type of the variable; not {@link FSMVariable.Type#ENUM}
+     * @param value Initial value, as written in a configuration; null, 
+     *              for zero or false
+     * @return this builder
+     */
+    public FSMBuilder var(String name, FSMVariable.Type type, String value) {
+        if (type == FSMVariable.Type.ENUM) {
+            throw new IllegalArgumentException("Enum variables need constants");
+        }
+        this._vars.add(new String[] { name, type.name(), value, null });
+        return this;
+    }
+    
+    /**
+     * Method declares an extended-state variable holding one of a few
+     * constants<br/>
+     * 
+     * @param name Name of the variable
+     * @param value Initial constant; null, for the first one
+     * @param values Constants, in order
+     * @return this builder
+     */
+    public FSMBuilder enumVar(String name, String value, String... values) {
+        this._vars.add(new String[] { name, FSMVariable.Type.ENUM.name(), 
+            value, String.join(",", values) });
+        return this;
+    }
+    
+    private Spec current() {
+        if (this._cur == null) {
+            throw new IllegalStateException("No state declared");
+        }
+        return this._cur;
+    }
+    
+    private Spec stateOnly() {
+        if (current() == this._any) {
+            throw new IllegalStateException("Hooks can not be set on any state");
+        }
+        return this._cur;
+    }
+    
+    /**
+     * Method builds the definition of the declared states<br/>
+     * 
+     * @return New definition
+     * @throws IllegalStateException if no state is declared, or if a 
+     *         transition leads to a state not declared
+     */
+    public FSMDefinition build() {
+        if (this._states.isEmpty()) {
+            throw new IllegalStateException("No state declared");
+        }
+        List<FSMState> _l = new ArrayList<FSMState>(this._states.size());
+        for (Spec _s : this._states.values()) {
+            FSMState st = create(_s);
+            st.setBeforeTransition(_s.before);
+            st.setAfterTransition(_s.after);
+            _l.add(st);
+        }
+        FSMDefinition d = new FSMDefinition(this._name, _l, create(this._any));
+        for (String[] v : this._vars) {
+            d.declare(v[0], FSMVariable.Type.valueOf(v[1]), v[2], v[3]);
+        }
+        return d;
+    }
+    
+    private FSMState create(Spec spec) {
+        FSMState st = new FSMState(spec.name);
+        for (Map.Entry<String, FSMTransitionInfo> e : spec.transitions.entrySet()) {
+            FSMTransitionInfo t = e.getValue();
+            if (!this._states.containsKey(t.getNextState())) {
+                throw new IllegalStateException("State " + spec.name 
+                        + " moves on " + e.getKey() + " to undeclared state "
+                        + t.getNextState());
+            }
+            st.addTransition(e.getKey(), new FSMTransitionInfo(
+                    t.getActionName(), t.getNextState(), t.getAction()));
+        }
+        return st;
+    }
+}
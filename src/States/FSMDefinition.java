@@ -0,0 +1,694 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+import Action.FSMAction;
+import Common.CustomXMLReader;
+import java.util.*;
+
+/**
+ * Implements the definition of a FSM
+ * 
+ * <p>
+ * A definition holds the states of a FSM along with their transitions and
+ * the actions bound to them. It does not hold a current state; hence, one
+ * definition can be shared by any number of FSM instances, each of them
+ * keeping only its own current state.
+ * </p>
+ * 
+ * @version 1.00
+ * @author ANKIT
+ */
+public class FSMDefinition implements java.io.Serializable {
+    private static final long serialVersionUID = 3121838125465420337L;
+    
+    private String _name;
+    private ArrayList<FSMState> _fsmStates;
+    private ArrayList<String> _states;
+    private HashMap<String, FSMState> _stateIndex;
+    private FSMState _anyState;
+    /*
+     * Compiled transitions; null, until compiled or after the transitions
+     * changed
+     */
+    private transient volatile FSMTransitionTable _table;
+    /*
+     * Extended-state variables, and their number of long and double slots
+     */
+    private FSMVariable[] _variables = new FSMVariable[0];
+    private int _longSlots;
+    private int _doubleSlots;
+    
+    /**
+     * <p>
+     * This constructor allows to create a definition from the states read
+     * from a XML Configuration.<br/>
+     * In lazy loading mode only the index of the states is built; the
+     * transitions of a state are decoded when the state is first reached.
+     * They are read from the document in compact form beforehand, so that
+     * the states do not keep the document.
+     * </p>
+     * <br/>
+     * 
+     * @param name Name of the definition; can be null
+     * @param reader Reader of the XML Configuration
+     * @param lazy Specifies if states shall be loaded on demand
+     */
+    public FSMDefinition(String name, CustomXMLReader reader, boolean lazy) {
+        this._name = name;
+        this._fsmStates = new ArrayList<FSMState>();
+        this._stateIndex = new HashMap<String, FSMState>();
+        this._states = new ArrayList<String>();
+        for (Object _state : reader.getStates()) this._states.add((String) _state);
+        
+        /*
+         * Transitions of the any-state are folded into every state
+         */
+        this._anyState = new FSMState(FSMState.ANY, 
+                this._states.remove(FSMState.ANY) ? 
+                        reader.getStateInfo(FSMState.ANY) : new HashMap<String, String>());
+        
+        HashMap<String, String[]> _table = lazy ? reader.getStateTable() : null;
+        for (String _state : this._states) {
+            FSMState _s;
+            if (lazy) {
+                String[] _c = _table.get(_state);
+                _s = new FSMState(_state, _c != null ? _c : new String[0]);
+            } else {
+                _s = new FSMState(_state, reader.getStateInfo(_state));
+            }
+            _s.setOrdinal(this._fsmStates.size());
+            _s.setAnyState(this._anyState);
+            this._fsmStates.add(_s);
+            this._stateIndex.put(_state, _s);
+        }
+        
+        for (String[] v : reader.getVariables()) {
+            declare(v[0], FSMVariable.type(v[0], v[1]), v[2], v[3]);
+        }
+    }
+
+    /**
+     * <p>
+     * This constructor allows to create an unnamed definition from the
+     * states read from a XML Configuration.
+     * </p>
+     * <br/>
+     * 
+     * @param reader Reader of the XML Configuration
+     * @param lazy Specifies if states shall be loaded on demand
+     */
+    public FSMDefinition(CustomXMLReader reader, boolean lazy) {
+        this(null, reader, lazy);
+    }
+    
+    /**
+     * <p>
+     * This constructor allows to create a definition from states built
+     * without a XML Configuration, such as by a compiler of another 
+     * automaton. The first state is the initial state.
+     * </p>
+     * <br/>
+     * 
+     * @param name Name of the definition; can be null
+     * @param states States of the FSM, in order
+     */
+    public FSMDefinition(String name, List<FSMState> states) {
+        this(name, states, new FSMState(FSMState.ANY, new HashMap<String, String>()));
+    }
+    
+    /*
+     * Creates a definition of the states, whose transitions valid in any
+     * state are those of the any-state.
+     */
+    FSMDefinition(String name, List<FSMState> states, FSMState any) {
+        this._name = name;
+        this._fsmStates = new ArrayList<FSMState>();
+        this._stateIndex = new HashMap<String, FSMState>();
+        this._states = new ArrayList<String>();
+        this._anyState = any;
+        
+        for (FSMState _s : states) {
+            _s.setOrdinal(this._fsmStates.size());
+            _s.setAnyState(this._anyState);
+            this._fsmStates.add(_s);
+            this._states.add(_s.getCurrentState());
+            this._stateIndex.put(_s.getCurrentState(), _s);
+        }
+    }
+    
+    /**
+     * This method allows to set specific action methods for a specific
+     * message/action.<br/> 
+     * If specified, this method shall be called when specified message is
+     * received in specified list of states.
+     * <br/>
+     *
+     * @param states List of states for which specified action method needs to
+     *               be initiated
+     * @param message Message/Action which is received 
+     * @param act Action method which needs to be initiated when message/action
+     *            is received
+     */
+    public void setAction(ArrayList<String> states, String message, 
+            FSMAction act) {
+        for (String state : states) {
+            FSMState i = getState(state);
+            if (i != null) i.addMessageAction(message, act);
+        }
+    }
+    
+    /**
+     * This method allows to set specific action methods for a specific
+     * message/action.<br/> 
+     * If specified, this method shall be called when specified message is
+     * received in specified state.
+     * <br/>
+     *
+     * @param state State for which this override action method needs to be 
+     *              initiated
+     * @param message Message/Action which is received 
+     * @param act Action method which needs to be initiated when message/action
+     *            is received
+     */
+    public void setAction(String state, String message, 
+            FSMAction act) {
+        setAction(new ArrayList<String>(Arrays.asList(state)), message, act);
+    }
+    
+    /**
+     * This method allows to set specific action methods for a specific
+     * message/action.<br/> 
+     * If specified, this method shall be called when specified message is
+     * received in any state.
+     * Lazily loaded states not yet decoded are bound the action once 
+     * decoded, as transitions valid in any state are folded into them.
+     * <br/>
+     * 
+     * @param message Message/Action which is received 
+     * @param act Action method which needs to be initiated when message/action
+     *            is received
+     */
+    public void setAction(String message, FSMAction act) {
+        this._anyState.addGlobalMessageAction(message, act);
+        for (FSMState i : this._fsmStates) {
+            if (i.isMaterialized()) i.addMessageAction(message, act);
+        }
+    }
+    
+    /**
+     * This method allows to add a transition valid in any state.<br/> 
+     * A transition configured on a state for the same message takes 
+     * precedence over it. Passing {@link FSMState#ANY} as message adds a 
+     * transition taken on any message which has no transition of its own.
+     * <br/>
+     * Precedence, from highest to lowest, is thus:
+     * <ol>
+     *  <li> message configured on the state
+     *  <li> message configured on any state
+     *  <li> any message configured on the state
+     *  <li> any message configured on any state
+     * </ol>
+     * 
+     * @param message Message/Action which is received 
+     * @param action Name of the action, as passed to the action methods
+     * @param nextState State to be attained on successful transition
+     */
+    public void addGlobalTransition(String message, String action, 
+            String nextState) {
+        this._anyState.putTransition(message, action, nextState);
+        for (FSMState i : this._fsmStates) {
+            if (i.isMaterialized()) i.inherit(message);
+        }
+        this._table = null;
+    }
+    
+    /**
+     * This method allows to set entry methods for a specific
+     * State.<br/> 
+     * If specified, this method shall be invoked before action method is 
+     * invoked when any message is received in specified state.
+     * <br/>
+     * 
+     * @param state State for which entry function is being assigned
+     * @param act Entry method which needs to be initiated when any message/action
+     *            is received on specified state
+     */
+    public void setStateBeforeTransition(String state, FSMStateAction act) {
+        FSMState i = getState(state);
+        if (i != null) i.setBeforeTransition(act);
+    }
+
+    /**
+     * This method allows to set entry methods for a specific
+     * State.<br/> 
+     * If specified, this method shall be invoked before action method is 
+     * invoked when any message is received in specified state.
+     * <br/>
+     * 
+     * @param states List of State for which entry function is being assigned<br/>
+     *               If passed null, entry method is applied to all states
+     * @param act Entry method which needs to be initiated when any message/action
+     *            is received on specified state
+     */
+    public void setStateBeforeTransition(ArrayList<String> states, 
+            FSMStateAction act) {
+        if (states==null) { states = _states;}
+        
+        for (String state : states) {
+            FSMState i = getState(state);
+            if (i != null) i.setBeforeTransition(act);
+        }
+    }
+
+    /**
+     * This method allows to set entry methods for a specific
+     * State.<br/> 
+     * If specified, this method shall be invoked after action method has been 
+     * invoked when any message is received in specified state.
+     * <br/>
+     * 
+     * @param state State for which exit function is being assigned
+     * @param act Exit method which needs to be initiated when any message/action
+     *            is received on specified state
+     */
+    public void setStateAfterTransition(String state, FSMStateAction act) {
+        FSMState i = getState(state);
+        if (i != null) i.setAfterTransition(act);
+    }
+
+    /**
+     * This method allows to set entry methods for a specific
+     * State.<br/> 
+     * If specified, this method shall be invoked after action method has been 
+     * invoked when any message is received in specified state.
+     * <br/>
+     * 
+     * @param states List of State for which entry function is being assigned<br/>
+     *               If passed null, entry method is applied to all states
+     * @param act Exit method which needs to be initiated when any message/action
+     *            is received on specified state
+     */
+    public void setStateAfterTransition(ArrayList<String> states, 
+            FSMStateAction act) {
+        if (states==null) {states = _states;}
+        
+        for (String state : states) {
+            FSMState i = getState(state);
+            if (i != null) i.setAfterTransition(act);
+        }
+    }
+
+    /**
+     * This method merges equivalent states of the definition, using
+     * Hopcroft's partition refinement.<br/> 
+     * Two states are equivalent when they have the same entry and exit 
+     * methods, and every message, including messages having no transition
+     * of their own, takes them along transitions of the same name and
+     * action method to equivalent states.<br/>
+     * Each set of equivalent states is kept as its first state in 
+     * configuration order; the names of the other states remain known as
+     * aliases of it, and transitions to them are pointed at it. Actions 
+     * shall hence be bound before minimizing, as an action bound later 
+     * through an alias applies to all states merged with it.<br/>
+     * A merged state is hence seen by the name of the state kept: by 
+     * actions, hooks, {@link FSM.FSM#getCurrentState()}, transition 
+     * listeners and registries alike. States whose names the default action
+     * of a FSM or their hooks are passed, i.e. states having hooks, or left
+     * or entered by a transition without an action of its own, are merged
+     * only with states of the same name, that is not at all; see 
+     * {@link #minimize(boolean)}.<br/>
+     * This method shall be called before the definition is shared by any
+     * FSM; FSMs created earlier keep referring to the merged states.
+     * <br/>
+     * 
+     * @return Number of states merged into others
+     */
+    public int minimize() { return minimize(false); }
+
+    /**
+     * This method merges equivalent states of the definition, as by 
+     * {@link #minimize()}, states whose names are seen by actions or hooks
+     * included if asked to.<br/>
+     * Merging these changes the names actions, hooks and listeners are 
+     * passed; it is for callers whose actions and hooks tell states apart
+     * by their transitions only, not by their names.<br/>
+     * 
+     * @param ignoreNames true, to merge states whatever their names are 
+     *                    seen by
+     * @return Number of states merged into others
+     */
+    public synchronized int minimize(boolean ignoreNames) {
+        int n = this._fsmStates.size();
+        if (n < 2) return 0;
+        FSMState[] st = this._fsmStates.toArray(new FSMState[n]);
+        
+        /*
+         * Messages of all states; the last letter stands for any message
+         * not listed
+         */
+        LinkedHashSet<String> _m = new LinkedHashSet<String>();
+        for (FSMState i : st) {
+            Map<String, FSMTransitionInfo> _t = i.getNewTransitionMap();
+            if (_t != null) _m.addAll(_t.keySet());
+        }
+        String[] alpha = _m.toArray(new String[_m.size() + 1]);
+        int k = alpha.length;
+        
+        /*
+         * States whose names are seen by hooks, or by the default action run
+         * by transitions leaving or entering them
+         */
+        boolean[] named = new boolean[n];
+        if (!ignoreNames) {
+            for (int s = 0; s < n; s++) {
+                if (st[s].getBeforeTransition() != null 
+                        || st[s].getAfterTransition() != null) {
+                    named[s] = true;
+                }
+                for (int a = 0; a < k; a++) {
+                    FSMTransitionInfo t = alpha[a] == null ? 
+                            st[s].getDefaultTransition() : st[s].getTransition(alpha[a]);
+                    if (t == null || t.getAction() != null) continue;
+                    named[s] = true;
+                    FSMState target = getState(t.getNextState());
+                    if (target != null) named[target.getOrdinal()] = true;
+                }
+            }
+        }
+        
+        /*
+         * Initial partition: states having the same hooks, and the same
+         * transition names and actions on every letter; states whose names
+         * are seen also have the same name
+         */
+        int[][] delta = new int[k][n];
+        int[] blk = new int[n];
+        HashMap<List<Object>, Integer> _sig = new HashMap<List<Object>, Integer>();
+        for (int s = 0; s < n; s++) {
+            List<Object> key = new ArrayList<Object>();
+            key.add(named[s] ? st[s].getCurrentState() : null);
+            key.add(st[s].getBeforeTransition());
+            key.add(st[s].getAfterTransition());
+            for (int a = 0; a < k; a++) {
+                FSMTransitionInfo t = alpha[a] == null ? 
+                        st[s].getDefaultTransition() : st[s].getTransition(alpha[a]);
+                FSMState target = t == null ? null : getState(t.getNextState());
+                delta[a][s] = target == null ? -1 : target.getOrdinal();
+                if (t == null) {
+                    key.add(null);
+                } else {
+                    key.add(t.getActionName());
+                    key.add(t.getAction());
+                    key.add(target != null);
+                }
+            }
+            Integer b = _sig.get(key);
+            if (b == null) {
+                b = _sig.size();
+                _sig.put(key, b);
+            }
+            blk[s] = b;
+        }
+        int blocks = _sig.size();
+        
+        /*
+         * Blocks are ranges [first, end) of elems; the states of a block
+         * marked by the current splitter are moved to [first, mid)
+         */
+        int[] elems = new int[n], loc = new int[n];
+        int[] first = new int[n], end = new int[n], mid = new int[n];
+        for (int s = 0; s < n; s++) end[blk[s]]++;
+        for (int b = 0, p = 0; b < blocks; b++) {
+            int size = end[b];
+            first[b] = mid[b] = end[b] = p;
+            p += size;
+        }
+        for (int s = 0; s < n; s++) {
+            int b = blk[s];
+            elems[end[b]] = s;
+            loc[s] = end[b]++;
+        }
+        
+        /*
+         * Predecessors of each state on each letter
+         */
+        int[][] invStart = new int[k][n + 1];
+        int[][] inv = new int[k][];
+        for (int a = 0; a < k; a++) {
+            int cnt = 0;
+            for (int s = 0; s < n; s++) {
+                if (delta[a][s] >= 0) { invStart[a][delta[a][s] + 1]++; cnt++; }
+            }
+            for (int t = 0; t < n; t++) invStart[a][t + 1] += invStart[a][t];
+            inv[a] = new int[cnt];
+            int[] fill = Arrays.copyOf(invStart[a], n);
+            for (int s = 0; s < n; s++) {
+                if (delta[a][s] >= 0) inv[a][fill[delta[a][s]]++] = s;
+            }
+        }
+        
+        BitSet inWork = new BitSet();
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        for (int b = 0; b < blocks; b++) {
+            for (int a = 0; a < k; a++) {
+                inWork.set(b * k + a);
+                work.add(b * k + a);
+            }
+        }
+        int[] splitter = new int[n];
+        int[] touched = new int[n];
+        while (!work.isEmpty()) {
+            int w = work.poll();
+            inWork.clear(w);
+            int B = w / k, a = w % k;
+            int size = end[B] - first[B];
+            System.arraycopy(elems, first[B], splitter, 0, size);
+            int nt = 0;
+            for (int j = 0; j < size; j++) {
+                int t = splitter[j];
+                for (int p = invStart[a][t]; p < invStart[a][t + 1]; p++) {
+                    int s = inv[a][p], b = blk[s];
+                    if (loc[s] < mid[b]) continue;
+                    if (mid[b] == first[b]) touched[nt++] = b;
+                    int o = elems[mid[b]];
+                    elems[loc[s]] = o; loc[o] = loc[s];
+                    elems[mid[b]] = s; loc[s] = mid[b];
+                    mid[b]++;
+                }
+            }
+            for (int j = 0; j < nt; j++) {
+                int b = touched[j];
+                if (mid[b] == end[b]) { mid[b] = first[b]; continue; }
+                int c = blocks++;
+                first[c] = mid[c] = first[b];
+                end[c] = mid[b];
+                first[b] = mid[b];
+                for (int p = first[c]; p < end[c]; p++) blk[elems[p]] = c;
+                for (int x = 0; x < k; x++) {
+                    int wb = b * k + x;
+                    int wc = c * k + x;
+                    if (inWork.get(wb) || end[c] - first[c] <= end[b] - first[b]) {
+                        inWork.set(wc);
+                        work.add(wc);
+                    } else {
+                        inWork.set(wb);
+                        work.add(wb);
+                    }
+                }
+            }
+        }
+        if (blocks == n) return 0;
+        
+        /*
+         * Keep the first state of each block, and alias the others to it
+         */
+        int[] rep = new int[blocks];
+        Arrays.fill(rep, -1);
+        for (int s = 0; s < n; s++) if (rep[blk[s]] < 0) rep[blk[s]] = s;
+        HashMap<String, String> aliases = new HashMap<String, String>();
+        ArrayList<FSMState> kept = new ArrayList<FSMState>();
+        ArrayList<String> names = new ArrayList<String>();
+        for (int s = 0; s < n; s++) {
+            if (rep[blk[s]] == s) {
+                kept.add(st[s]);
+                names.add(st[s].getCurrentState());
+            } else {
+                aliases.put(st[s].getCurrentState(), 
+                        st[rep[blk[s]]].getCurrentState());
+            }
+        }
+        for (Map.Entry<String, FSMState> e : this._stateIndex.entrySet()) {
+            String r = aliases.get(e.getValue().getCurrentState());
+            if (r != null) aliases.put(e.getKey(), r);
+        }
+        for (Map.Entry<String, String> e : aliases.entrySet()) {
+            this._stateIndex.put(e.getKey(), this._stateIndex.get(e.getValue()));
+        }
+        this._anyState.retarget(aliases);
+        for (int i = 0; i < kept.size(); i++) {
+            kept.get(i).retarget(aliases);
+            kept.get(i).setOrdinal(i);
+        }
+        this._fsmStates = kept;
+        this._states = names;
+        this._table = null;
+        return n - blocks;
+    }
+
+    /**
+     * This method compiles the transitions of all states into a
+     * {@link FSMTransitionTable}, dense or sparse as their density 
+     * suits, through which FSMs of the definition then look up their
+     * transitions.<br/> 
+     * Lazily loaded states are all decoded. The table is dropped when a
+     * transition is added or states are merged, and this method shall 
+     * then be called again; actions may be bound at any time.
+     * <br/>
+     * 
+     * @return Compiled table
+     */
+    public synchronized FSMTransitionTable compile() {
+        FSMTransitionTable t = new FSMTransitionTable(this._fsmStates);
+        this._table = t;
+        return t;
+    }
+
+    /**
+     * This method returns the compiled transitions of the definition
+     * <br/>
+     * 
+     * @return Compiled table; null, if not compiled
+     */
+    public FSMTransitionTable getTransitionTable() { return this._table; }
+
+    /*
+     * Declares an extended-state variable, in the next slot of its kind
+     */
+    void declare(String name, FSMVariable.Type type, String value, String values) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Variable without id");
+        }
+        if (getVariable(name) != null) {
+            throw new IllegalArgumentException("Variable " + name + " declared twice");
+        }
+        FSMVariable v = new FSMVariable(name, type, value, values, 
+                type == FSMVariable.Type.DOUBLE ? this._doubleSlots++ : this._longSlots++);
+        this._variables = Arrays.copyOf(this._variables, this._variables.length + 1);
+        this._variables[this._variables.length - 1] = v;
+    }
+
+    /**
+     * This method returns the accessor of an extended-state variable; it 
+     * shall be looked up once, and kept.
+     * <br/>
+     * 
+     * @param name Name of the variable
+     * @return Accessor of the variable; null, if no such variable is declared
+     */
+    public FSMVariable getVariable(String name) {
+        for (FSMVariable v : this._variables) {
+            if (v.getName().equals(name)) return v;
+        }
+        return null;
+    }
+
+    /**
+     * This method returns the extended-state variables of the definition
+     * <br/>
+     * 
+     * @return Declared variables, in order
+     */
+    public List<FSMVariable> getVariables() { 
+        return Collections.unmodifiableList(Arrays.asList(this._variables)); 
+    }
+
+    /**
+     * This method creates values of the extended-state variables for a
+     * FSM, at their initial values.
+     * <br/>
+     * 
+     * @return New values; null, if no variable is declared
+     */
+    public FSMVariables newVariables() {
+        if (this._variables.length == 0) return null;
+        return new FSMVariables(this._variables, this._longSlots, this._doubleSlots);
+    }
+
+    /**
+     * This method returns the name of the definition
+     * <br/>
+     * 
+     * @return Name of the definition; null, if unnamed
+     */
+    public String getName() { return this._name; }
+    
+    /**
+     * This method returns the initial state of the FSM, which is the first
+     * state of the configuration.
+     * <br/>
+     * 
+     * @return Returns a FSMState object
+     */
+    public FSMState getInitialState() { return this._fsmStates.get(0); }
+    
+    /**
+     * This method allows to look up a state of the FSM by its name
+     * <br/>
+     * 
+     * @param state Name of the state
+     * @return Returns a FSMState object; null, if no such state exists
+     */
+    public FSMState getState(String state) { 
+        return this._stateIndex.get(state);
+    }
+    
+    /**
+     * This method allows to look up a state of the FSM by its ordinal
+     * <br/>
+     * 
+     * @param ordinal Position of the state within the configuration
+     * @return Returns a FSMState object
+     * @throws IndexOutOfBoundsException if no such state exists
+     */
+    public FSMState getState(int ordinal) { 
+        return this._fsmStates.get(ordinal);
+    }
+    
+    /**
+     * This method returns the names of the states, in configuration order.
+     * <br/>
+     * 
+     * @return Returns the list of state names
+     */
+    public List<String> getStateNames() { return this._states; }
+    
+    /**
+     * This method returns the list a FSM States configured for this FSM.
+     * <br/>
+     * 
+     * @return Returns the list of FSM states
+     */
+    public List<FSMState> getAllStates() { return this._fsmStates; }
+}
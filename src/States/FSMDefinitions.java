@@ -0,0 +1,146 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+import Common.CustomXMLReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
+
+/**
+ * Implements an index of named FSM definitions
+ * 
+ * <p>
+ * This implementation allows one XML Configuration document to hold several
+ * named FSMs. The document is parsed once; the states of a definition are
+ * read from it only when the definition is first requested, and the
+ * definition is then kept for later requests.
+ * </p>
+ * 
+ * <p>
+ * &lt;FSMS&gt;<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;FSM name="door"&gt; &lt;STATE .../&gt; ... &lt;/FSM&gt;<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;FSM name="light"&gt; &lt;STATE .../&gt; ... &lt;/FSM&gt;<br/>
+ * &lt;/FSMS&gt;<br/>
+ * </p>
+ * 
+ * @version 1.00
+ * @author ANKIT
+ */
+public class FSMDefinitions {
+    
+    private CustomXMLReader _reader;
+    private boolean _lazy;
+    private HashMap<String, FSMDefinition> _definitions = 
+            new HashMap<String, FSMDefinition>();
+    
+    /**
+     * This constructor allows to index the FSMs of a Configuration File
+     * <br/>
+     * 
+     * @param configFName Path of the XML Configuration file
+     * @param lazy Specifies if states of a definition shall be loaded on demand
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMDefinitions(String configFName, boolean lazy) 
+            throws ParserConfigurationException, SAXException, IOException {
+        this._reader = new CustomXMLReader(configFName);
+        this._lazy = lazy;
+    }
+    
+    /**
+     * This constructor allows to index the FSMs of a Configuration File
+     * <br/>
+     * 
+     * @param configFName Path of the XML Configuration file
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMDefinitions(String configFName) 
+            throws ParserConfigurationException, SAXException, IOException {
+        this(configFName, false);
+    }
+    
+    /**
+     * This constructor allows to index the FSMs of an InputStream
+     * <br/>
+     * 
+     * @param configFStream InputStream of a XML Configuration file
+     * @param lazy Specifies if states of a definition shall be loaded on demand
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMDefinitions(InputStream configFStream, boolean lazy) 
+            throws ParserConfigurationException, SAXException, IOException {
+        this._reader = new CustomXMLReader(configFStream);
+        this._lazy = lazy;
+    }
+    
+    /**
+     * This constructor allows to index the FSMs of an InputStream
+     * <br/>
+     * 
+     * @param configFStream InputStream of a XML Configuration file
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMDefinitions(InputStream configFStream) 
+            throws ParserConfigurationException, SAXException, IOException {
+        this(configFStream, false);
+    }
+    
+    /**
+     * This method returns the names of the FSMs within the document
+     * <br/>
+     * 
+     * @return Returns the list of names, in document order
+     */
+    public List<String> getNames() { return this._reader.getDefinitionNames(); }
+    
+    /**
+     * This method returns the named definition; states are read from the
+     * document on the first request for a name.
+     * <br/>
+     * 
+     * @param name Name of the FSM
+     * @return Returns a FSMDefinition object; null, if no such FSM exists
+     */
+    public synchronized FSMDefinition getDefinition(String name) {
+        FSMDefinition _d = this._definitions.get(name);
+        if (_d == null) {
+            CustomXMLReader _r = this._reader.getDefinition(name);
+            if (_r == null) return null;
+            _d = new FSMDefinition(name, _r, this._lazy);
+            this._definitions.put(name, _d);
+        }
+        return _d;
+    }
+}
@@ -27,8 +27,11 @@ import Action.FSMAction;
 import Common.CustomXMLReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
@@ -41,11 +44,43 @@ import org.xml.sax.SAXException;
 public class FSMState implements java.io.Serializable {
     private static final long serialVersionUID = -7020866901240150728L;
     
+    /**
+     * Id of the state holding transitions valid in any state, and id of
+     * the message matching any message
+     */
+    public static final String ANY = "*";
+    
     private final String  _curState;
+    private int _ordinal = -1;
     private HashMap _transitionMap;
-    private HashMap _transitions;
+    private HashMap<String, FSMTransitionInfo> _transitions;
+    /*
+     * Transition on any message not having its own transition
+     */
+    private FSMTransitionInfo _default;
+    /*
+     * State holding the transitions valid in any state, and the messages
+     * whose transitions were folded from it
+     */
+    private FSMState _anyState;
+    private HashSet<String> _inherited;
+    /*
+     * On the any-state: actions bound to messages in every state, in the 
+     * order bound, for lazily loaded states to bind once decoded; replaced,
+     * not modified, on each binding
+     */
+    private transient volatile LinkedHashMap<String, FSMAction> _messageActions;
     private String  _configFileName;
     private CustomXMLReader _reader;
+    /*
+     * Transitions of a lazily loaded state not yet decoded, as 
+     * {message, action, nextState, ...} triples
+     */
+    private String[] _compact;
+    /*
+     * Set while transitions of a lazily loaded state are not yet decoded
+     */
+    private volatile boolean _lazy;
 
     private FSMStateAction stateEntry;
     private FSMStateAction stateExit;
@@ -85,6 +120,42 @@ public class FSMState implements java.io.Serializable {
         this._transitionMap = map;
         updateNewTransitionMap();
     }
+
+    /**
+     * This Constructor allows to create a state whose transitions are read
+     * from the XML Configuration only when they are first required.<br/>
+     * Used by the lazy loading mode of {@link FSMStates}, so that states which
+     * are never reached do not cost any transition maps.<br/>
+     * 
+     * @param state Name of the state
+     * @param reader Reader of the XML Configuration holding this state
+     */
+    public FSMState(String state, CustomXMLReader reader) {
+        this._curState = state;
+        this._reader = reader;
+        this._lazy = true;
+    }
+    
+    /*
+     * Creates a state whose transitions, read from the XML Configuration
+     * as {message, action, nextState, ...} triples, are decoded only when
+     * they are first required; unlike a state created on the reader, it 
+     * does not keep the document.
+     */
+    FSMState(String state, String[] transitions) {
+        this._curState = state;
+        this._compact = transitions;
+        this._lazy = true;
+    }
+    
+    /*
+     * Creates a state without transitions, to which transitions are added
+     * by addTransition.
+     */
+    FSMState(String state) {
+        this._curState = state;
+        this._transitions = new HashMap<String, FSMTransitionInfo>();
+    }
     
     /**
      * Method to allow addition of Messages along with their own
@@ -94,6 +165,8 @@ public class FSMState implements java.io.Serializable {
      * @param action
      */
     public void addMessages(String message, Object action) {
+        materialize();
+        if (this._transitionMap == null) this._transitionMap = new HashMap();
         this._transitionMap.put(message, action);
         updateNewTransitionMap();
     }
@@ -111,6 +184,57 @@ public class FSMState implements java.io.Serializable {
         }
     }
     
+    /**
+     * Method decodes the transitions of a lazily loaded state from the
+     * XML Configuration, if not already done.<br/>
+     */
+    private void materialize() {
+        if (this._lazy) {
+            synchronized (this) {
+                if (this._lazy) {
+                    if (this._compact != null) {
+                        HashMap<String, String> _m = new HashMap<String, String>();
+                        for (int i = 0; i + 2 < this._compact.length; i += 3) {
+                            _m.put(this._compact[i], this._compact[i + 1] 
+                                    + ":" + this._compact[i + 2]);
+                        }
+                        this._transitionMap = _m;
+                    } else {
+                        this._transitionMap = this._reader.getStateInfo(this._curState);
+                    }
+                    updateNewTransitionMap();
+                    LinkedHashMap<String, FSMAction> _a = 
+                            _anyState == null ? null : _anyState._messageActions;
+                    if (_a != null) {
+                        /* folded transitions carry them already */
+                        for (Map.Entry<String, FSMAction> e : _a.entrySet()) {
+                            if (isLocal(e.getKey())) bindAction(e.getKey(), e.getValue());
+                        }
+                    }
+                    this._reader = null;
+                    this._compact = null;
+                    this._lazy = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method tells if the transitions of this state have been decoded.<br/>
+     * 
+     * @return false, iff state is lazily loaded and not yet reached
+     */
+    public boolean isMaterialized() { return !this._lazy; }
+
+    /*
+     * Lazily loaded states are decoded before being written, as the
+     * reader holding the XML document can not be serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+    
     /**
      *  Method to update new Transition Map<br/>
      * @return
@@ -123,11 +247,129 @@ public class FSMState implements java.io.Serializable {
             while(iter.hasNext()) {
                 Map.Entry next = (Map.Entry) iter.next();
                 String[] val = ((String) next.getValue()).split(":",2);
-                this._transitions.put(next.getKey(), 
+                addTransition((String) next.getKey(), 
                         new FSMTransitionInfo(val[0], val[1]));
             }
+            if (_anyState != null) inherit(null);
         }
     }
+
+    /*
+     * Folds the transitions of the any-state into this state, so that a
+     * transition valid in any state is found by the same single lookup as
+     * a transition of this state. Transitions of this state take precedence.
+     * If message is null, all transitions of the any-state are folded.
+     */
+    void inherit(String message) {
+        if (_transitions == null || _anyState == null) return;
+        Map<String, FSMTransitionInfo> _g = _anyState.getNewTransitionMap();
+        for (Map.Entry<String, FSMTransitionInfo> next : _g.entrySet()) {
+            if ((message == null || message.equals(next.getKey())) 
+                    && !isLocal(next.getKey())) {
+                this._transitions.put(next.getKey(), copy(next.getValue()));
+                inherited(next.getKey());
+            }
+        }
+        if ((message == null || ANY.equals(message)) && !isLocal(ANY)
+                && _anyState._default != null) {
+            this._default = copy(_anyState._default);
+            inherited(ANY);
+        }
+    }
+
+    private void inherited(String message) {
+        if (_inherited == null) _inherited = new HashSet<String>();
+        _inherited.add(message);
+    }
+
+    /*
+     * Tells if the message has a transition configured on this state itself
+     */
+    private boolean isLocal(String message) {
+        boolean present = ANY.equals(message) ? _default != null 
+                : _transitions.containsKey(message);
+        return present && (_inherited == null || !_inherited.contains(message));
+    }
+
+    /*
+     * Adds a transition of this state itself, replacing any transition of
+     * the message, folded from the any-state or not.
+     */
+    void addTransition(String message, FSMTransitionInfo info) {
+        if (ANY.equals(message)) {
+            this._default = info;
+        } else {
+            this._transitions.put(message, info);
+        }
+        if (_inherited != null) _inherited.remove(message);
+    }
+
+    private static FSMTransitionInfo copy(FSMTransitionInfo info) {
+        if (info == null) return null;
+        return new FSMTransitionInfo(info.getActionName(), info.getNextState(),
+                info.getAction());
+    }
+
+    /*
+     * Sets the state holding the transitions valid in any state, and folds
+     * them into this state if its transitions are already decoded.
+     */
+    void setAnyState(FSMState any) {
+        this._anyState = any;
+        if (!this._lazy) inherit(null);
+    }
+
+    /*
+     * Adds a single transition to this state, leaving its other 
+     * transitions and their actions untouched.
+     */
+    void putTransition(String message, String action, String nextState) {
+        materialize();
+        if (_transitionMap == null) _transitionMap = new HashMap<String, String>();
+        if (_transitions == null) _transitions = new HashMap<String, FSMTransitionInfo>();
+        _transitionMap.put(message, action + ":" + nextState);
+        addTransition(message, new FSMTransitionInfo(action, nextState));
+    }
+    
+    /*
+     * Returns the transition taken on a message having no transition of its
+     * own; null, if none
+     */
+    FSMTransitionInfo getDefaultTransition() {
+        materialize();
+        return this._default;
+    }
+
+    /*
+     * Points the transitions to states merged into others at the states 
+     * they were merged into, keeping their actions.
+     */
+    void retarget(Map<String, String> aliases) {
+        materialize();
+        if (_transitions != null) {
+            for (Map.Entry<String, FSMTransitionInfo> next : _transitions.entrySet()) {
+                next.setValue(retarget(next.getValue(), aliases));
+            }
+        }
+        this._default = retarget(this._default, aliases);
+        if (_transitionMap != null) {
+            Iterator iter = _transitionMap.entrySet().iterator();
+            while(iter.hasNext()) {
+                Map.Entry next = (Map.Entry) iter.next();
+                String[] val = ((String) next.getValue()).split(":",2);
+                if (aliases.containsKey(val[1])) {
+                    next.setValue(val[0] + ":" + aliases.get(val[1]));
+                }
+            }
+        }
+    }
+
+    private static FSMTransitionInfo retarget(FSMTransitionInfo info, 
+            Map<String, String> aliases) {
+        if (info == null || !aliases.containsKey(info.getNextState())) return info;
+        return new FSMTransitionInfo(info.getActionName(), 
+                aliases.get(info.getNextState()), info.getAction());
+    }
     
     /**
      * Method to allow addition of Messages along with their own
@@ -137,11 +379,30 @@ public class FSMState implements java.io.Serializable {
      * @param act action method which needs to be assigned
      */
     public void addMessageAction(String message, FSMAction act) {
-        if (_transitions!=null) {
-            if (_transitions.containsKey(message)) {
-                ((FSMTransitionInfo)_transitions.get(message)).
-                        updateAction(act);
-            }
+        materialize();
+        bindAction(message, act);
+    }
+    
+    /*
+     * Records, on the any-state, an action bound to a message in every 
+     * state, and binds it to the transition of the any-state itself
+     */
+    void addGlobalMessageAction(String message, FSMAction act) {
+        LinkedHashMap<String, FSMAction> _a = this._messageActions == null ?
+                new LinkedHashMap<String, FSMAction>() : 
+                new LinkedHashMap<String, FSMAction>(this._messageActions);
+        _a.remove(message);
+        _a.put(message, act);
+        this._messageActions = _a;
+        addMessageAction(message, act);
+    }
+    
+    private void bindAction(String message, FSMAction act) {
+        if (ANY.equals(message)) {
+            if (_default!=null) _default.updateAction(act);
+        } else if (_transitions!=null) {
+            FSMTransitionInfo info = _transitions.get(message);
+            if (info != null) info.updateAction(act);
         }
     }
     
@@ -165,7 +426,10 @@ public class FSMState implements java.io.Serializable {
      *  Method to return the entire Transition Map<br/>
      * @return
      */
-    public HashMap getTransitionMap() { return this._transitionMap;}
+    public HashMap getTransitionMap() { 
+        materialize();
+        return this._transitionMap;
+    }
     
     /**
      * Method to return State-Name of the FSM State
@@ -173,11 +437,40 @@ public class FSMState implements java.io.Serializable {
      */
     public String getCurrentState() { return this._curState; }
     
+    /**
+     * Method to return the position of the state within its definition
+     * @return Ordinal of the state; -1, if state is not part of a definition
+     */
+    public int getOrdinal() { return this._ordinal; }
+    
+    /*
+     * Sets the position of the state within its definition
+     */
+    void setOrdinal(int ordinal) { this._ordinal = ordinal; }
+    
     /**
      *  Method to return new entire Transition Map<br/>
      * @return
      */
-    public Map getNewTransitionMap() { return this._transitions; }
+    public Map<String, FSMTransitionInfo> getNewTransitionMap() { 
+        materialize();
+        return this._transitions; 
+    }
+    
+    /**
+     *  Method to return the transition taken on a message in this state<br/>
+     *  A transition of the message on this state is preferred over one valid
+     *  in any state; failing both, the transition on any message is taken,
+     *  again preferring the one of this state.<br/>
+     * @param message Received message
+     * @return Transition on the message; null, if none exists
+     */
+    public FSMTransitionInfo getTransition(String message) {
+        materialize();
+        FSMTransitionInfo info = this._transitions == null ? null 
+                : this._transitions.get(message);
+        return info != null ? info : this._default;
+    }
 
     public FSMStateAction getBeforeTransition() { return stateEntry; }
     
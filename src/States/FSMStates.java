@@ -45,9 +45,9 @@ import org.xml.sax.SAXException;
 public class FSMStates implements java.io.Serializable {
     private static final long serialVersionUID = -7575735494729831944L;
     
-    private ArrayList _fsmStates;
-    private ArrayList _states;
-    private FSMState _curState;
+    private FSMDefinition _definition;
+    private volatile FSMState _curState;
+    private FSMVariables _vars;
     private String _configFileName="config/config.xml";
     
     /**
@@ -66,9 +66,30 @@ public class FSMStates implements java.io.Serializable {
      */
     public FSMStates(String configFName, boolean extFile) 
             throws ParserConfigurationException, SAXException, IOException {
+        this(configFName, extFile, false);
+    }
+
+    /**
+     * <p>
+     * This constructor allows to create a FSM from a Configuration File,
+     * optionally in lazy loading mode.<br/>
+     * In lazy loading mode only the index of the states is built; the
+     * transitions of a state are decoded when the state is first reached.
+     * This is meant for huge configurations of which few states are used.
+     * </p>
+     * <br/>
+     * 
+     * @param configFName
+     * @param extFile 
+     * @param lazy Specifies if states shall be loaded on demand
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMStates(String configFName, boolean extFile, boolean lazy) 
+            throws ParserConfigurationException, SAXException, IOException {
         
         if(!"".equals(configFName)) this._configFileName = configFName;
-        this._fsmStates = new ArrayList<FSMState>();
         CustomXMLReader _r = null;
         if(!extFile) {
             _r = new CustomXMLReader(
@@ -79,14 +100,9 @@ public class FSMStates implements java.io.Serializable {
             _r = new CustomXMLReader( this._configFileName );
         }
         
-        _states = _r.getStates();
-        
-        for (Object _state : _states) {
-            HashMap _t = _r.getStateInfo((String)_state);
-            this._fsmStates.add(new FSMState ((String) _state, _t));
-        }
-        
-        this._curState = (FSMState) this._fsmStates.get(0);
+        this._definition = new FSMDefinition(_r, lazy);
+        this._curState = this._definition.getInitialState();
+        this._vars = this._definition.newVariables();
     }
 
     /**
@@ -110,16 +126,46 @@ public class FSMStates implements java.io.Serializable {
      */
     public FSMStates(InputStream configFStream) 
             throws ParserConfigurationException, SAXException, IOException {
-        CustomXMLReader _r = new CustomXMLReader(configFStream);
-        this._fsmStates = new ArrayList<FSMState>();
-        _states = _r.getStates();
-        
-        for (Object _state : _states) {
-            HashMap _t = _r.getStateInfo((String)_state);
-            this._fsmStates.add(new FSMState ((String) _state, _t));
-        }
-        
-        this._curState = (FSMState) this._fsmStates.get(0);
+        this(configFStream, false);
+    }
+
+    /**
+     * <p>
+     * This constructor allows to create a FSM from a InputStream, optionally
+     * in lazy loading mode.<br/>
+     * In lazy loading mode only the index of the states is built; the
+     * transitions of a state are decoded when the state is first reached.
+     * </p>
+     * <br/>
+     * 
+     * @param configFStream InputStream of a XML Configuration file
+     * @param lazy Specifies if states shall be loaded on demand
+     * 
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public FSMStates(InputStream configFStream, boolean lazy) 
+            throws ParserConfigurationException, SAXException, IOException {
+        this(new FSMDefinition(new CustomXMLReader(configFStream), lazy));
+    }
+
+    /**
+     * <p>
+     * This constructor allows to create a FSM from a shared definition.<br/>
+     * States, transitions and actions bound to them are those of the 
+     * definition, and are shared with every other FSM created from the same
+     * definition; only the current state belongs to this FSM. The current
+     * state is initialised to the first state of the definition.
+     * </p>
+     * <br/>
+     * 
+     * @param definition Definition of the FSM
+     */
+    public FSMStates(FSMDefinition definition) {
+        this._definition = definition;
+        this._curState = definition.getInitialState();
+        this._vars = definition.newVariables();
     }
     
     /**
@@ -147,6 +193,17 @@ public class FSMStates implements java.io.Serializable {
      */
     public void setCurrentState(FSMState f) { this._curState = f; }
     
+    /**
+     * This method sets the current state of the FSM back to its initial
+     * state, the first state of the configuration, and its extended-state
+     * variables back to their initial values
+     * <br/>
+     */
+    public void reset() { 
+        this._curState = this._definition.getInitialState(); 
+        if (this._vars != null) this._vars.reset();
+    }
+    
     /**
      * This method allows to set specific action methods for a specific
      * message/action.<br/> 
@@ -162,15 +219,7 @@ public class FSMStates implements java.io.Serializable {
      */
     public void setAction(ArrayList<String> states, String message, 
             FSMAction act) {
-        int count = states.size();
-        for (Iterator it = this._fsmStates.iterator(); it.hasNext();) {
-            FSMState i = (FSMState) it.next();
-            if (states.contains(i.getCurrentState())) {
-                i.addMessageAction(message, act);
-                count--;
-                if (count<=0) break;
-            }
-        }
+        this._definition.setAction(states, message, act);
     }
     
     /**
@@ -188,7 +237,7 @@ public class FSMStates implements java.io.Serializable {
      */
     public void setAction(String state, String message, 
             FSMAction act) {
-        setAction(new ArrayList(Arrays.asList(state)), message, act);
+        this._definition.setAction(state, message, act);
     }
     
     /**
@@ -203,16 +252,23 @@ public class FSMStates implements java.io.Serializable {
      *            is received
      */
     public void setAction(String message, FSMAction act) {
-        ArrayList states = (ArrayList) getAllStates();
-        int count = states.size();
-        for (Iterator it = this._fsmStates.iterator(); it.hasNext();) {
-            FSMState i = (FSMState) it.next();
-            if (states.contains(i)) {
-                i.addMessageAction(message, act);
-                count--;
-                if (count<=0) break;
-            }
-        }    
+        this._definition.setAction(message, act);
+    }
+    
+    /**
+     * This method allows to add a transition valid in any state.<br/> 
+     * A transition configured on a state for the same message takes 
+     * precedence over it.
+     * <br/>
+     * 
+     * @param message Message/Action which is received, or 
+     *                {@link FSMState#ANY} for any message
+     * @param action Name of the action, as passed to the action methods
+     * @param nextState State to be attained on successful transition
+     */
+    public void addGlobalTransition(String message, String action, 
+            String nextState) {
+        this._definition.addGlobalTransition(message, action, nextState);
     }
     
     /**
@@ -227,13 +283,7 @@ public class FSMStates implements java.io.Serializable {
      *            is received on specified state
      */
     public void setStateBeforeTransition(String state, FSMStateAction act) {
-        for (Iterator it = this._fsmStates.iterator(); it.hasNext();) {
-            FSMState i = (FSMState) it.next();
-            if (i.getCurrentState().equals(state)) {
-                i.setBeforeTransition(act);
-                break;
-            }
-        }
+        this._definition.setStateBeforeTransition(state, act);
     }
 
     /**
@@ -250,14 +300,7 @@ public class FSMStates implements java.io.Serializable {
      */
     public void setStateBeforeTransition(ArrayList<String> states, 
             FSMStateAction act) {
-        if (states==null) { states = _states;}
-        
-        for (Iterator it = this._fsmStates.iterator(); it.hasNext();) {
-            FSMState i = (FSMState) it.next();
-            if (states.contains(i.getCurrentState())) {
-                i.setBeforeTransition(act);
-            }
-        }
+        this._definition.setStateBeforeTransition(states, act);
     }
 
     /**
@@ -272,13 +315,7 @@ public class FSMStates implements java.io.Serializable {
      *            is received on specified state
      */
     public void setStateAfterTransition(String state, FSMStateAction act) {
-        for (Iterator it = this._fsmStates.iterator(); it.hasNext();) {
-            FSMState i = (FSMState) it.next();
-            if (i.getCurrentState().equals(state)) {
-                i.setAfterTransition(act);
-                break;
-            }
-        }    
+        this._definition.setStateAfterTransition(state, act);
     }
 
     /**
@@ -295,14 +332,68 @@ public class FSMStates implements java.io.Serializable {
      */
     public void setStateAfterTransition(ArrayList<String> states, 
             FSMStateAction act) {
-        if (states==null) {states = _states;}
-        
-        for (Iterator it = this._fsmStates.iterator(); it.hasNext();) {
-            FSMState i = (FSMState) it.next();
-            if (states.contains(i.getCurrentState())) {
-                i.setAfterTransition(act);
-            }
-        }
+        this._definition.setStateAfterTransition(states, act);
+    }
+
+    /**
+     * This method merges equivalent states of the definition, and moves
+     * the current state to the state it was merged into.
+     * <br/>
+     * 
+     * @return Number of states merged into others
+     * @see FSMDefinition#minimize()
+     */
+    public int minimize() { return minimize(false); }
+
+    /**
+     * This method merges equivalent states of the definition, states whose
+     * names are seen by actions or hooks included if asked to, and moves 
+     * the current state to the state it was merged into.
+     * <br/>
+     * 
+     * @param ignoreNames true, to merge states whatever their names are 
+     *                    seen by
+     * @return Number of states merged into others
+     * @see FSMDefinition#minimize(boolean)
+     */
+    public int minimize(boolean ignoreNames) {
+        int merged = this._definition.minimize(ignoreNames);
+        this._curState = this._definition.getState(this._curState.getCurrentState());
+        return merged;
+    }
+
+    /**
+     * This method returns the values of the extended-state variables of
+     * the FSM, read and written through the accessors of the definition.
+     * <br/>
+     * 
+     * @return Values of the variables; null, if the definition declares none
+     * @see FSMDefinition#getVariable(String)
+     */
+    public FSMVariables getVariables() { return this._vars; }
+
+    /**
+     * This method compiles the transitions of the definition for faster
+     * lookup.
+     * <br/>
+     * 
+     * @return Compiled table
+     * @see FSMDefinition#compile()
+     */
+    public FSMTransitionTable compile() { return this._definition.compile(); }
+
+    /**
+     * This method returns the transition taken on a message in the current
+     * state, through the compiled transitions of the definition if any.
+     * <br/>
+     * 
+     * @param message Received message
+     * @return Transition on the message; null, if none exists
+     */
+    public FSMTransitionInfo getTransition(String message) {
+        FSMTransitionTable t = this._definition.getTransitionTable();
+        FSMState s = this._curState;
+        return t == null ? s.getTransition(message) : t.getTransition(s, message);
     }
 
     /**
@@ -313,11 +404,30 @@ public class FSMStates implements java.io.Serializable {
      */
     public FSMState getCurrentState() { return this._curState;}
     
+    /**
+     * This method allows to look up a state of the FSM by its name
+     * <br/>
+     * 
+     * @param state Name of the state
+     * @return Returns a FSMState object; null, if no such state exists
+     */
+    public FSMState getState(String state) { 
+        return this._definition.getState(state);
+    }
+    
+    /**
+     * This method returns the definition holding the states of the FSM
+     * <br/>
+     * 
+     * @return Returns a FSMDefinition object
+     */
+    public FSMDefinition getDefinition() { return this._definition; }
+    
     /**
      * This method returns the list a FSM States configured for this FSM.
      * <br/>
      * 
      * @return Returns the list of FSM states
      */
-    public List getAllStates() { return this._fsmStates;}
+    public List getAllStates() { return this._definition.getAllStates();}
 }
@@ -0,0 +1,170 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+/**
+ * @file FSMTransitionResult.java
+ * <p>
+ * This implementation holds the outcome of a message processed by a FSM:
+ * the state it was received in, the transition it matched if any, and
+ * whether the FSM committed the transition to the next state. A message 
+ * whose processing threw is reported by a failed result, bearing the 
+ * exception.
+ * </p>
+ * 
+ * @version 1.00
+ * @author ANKIT
+ */
+public class FSMTransitionResult implements java.io.Serializable {
+    private static final long serialVersionUID = -2318127043316546262L;
+    
+    private final Object key;
+    private final String fromState;
+    private final String message;
+    private final FSMTransitionInfo transition;
+    private final boolean committed;
+    private final RuntimeException error;
+    
+    /**
+     *
+     * @param key Key of the FSM instance which processed the message; can be null
+     * @param fromState State in which the message was received
+     * @param message Received message
+     * @param transition Transition matched by the message; null, if none
+     * @param committed true, iff FSM transitioned to the next state
+     */
+    public FSMTransitionResult(Object key, String fromState, String message,
+            FSMTransitionInfo transition, boolean committed) {
+        this(key, fromState, message, transition, committed, null);
+    }
+    
+    private FSMTransitionResult(Object key, String fromState, String message,
+            FSMTransitionInfo transition, boolean committed, 
+            RuntimeException error) {
+        this.key = key;
+        this.fromState = fromState;
+        this.message = message;
+        this.transition = transition;
+        this.committed = committed;
+        this.error = error;
+    }
+    
+    /**
+     * Method creates the result of a message whose processing threw<br/>
+     * The result is not committed; the FSM may nevertheless have 
+     * transitioned, if the exception was thrown once the transition was 
+     * committed, such as by an afterTransition or exit method.
+     * 
+     * @param key Key of the FSM instance; can be null
+     * @param fromState State in which the message was received; null, if 
+     *                  not known
+     * @param message Received message
+     * @param error Exception thrown
+     * @return Returns the failed result
+     */
+    public static FSMTransitionResult failed(Object key, String fromState, 
+            String message, RuntimeException error) {
+        return new FSMTransitionResult(key, fromState, message, null, false, error);
+    }
+    
+    /**
+     *
+     * @param fromState State in which the message was received
+     * @param message Received message
+     * @param transition Transition matched by the message; null, if none
+     * @param committed true, iff FSM transitioned to the next state
+     */
+    public FSMTransitionResult(String fromState, String message,
+            FSMTransitionInfo transition, boolean committed) {
+        this(null, fromState, message, transition, committed);
+    }
+    
+    /**
+     *
+     * @param key Key of the FSM instance which processed the message
+     * @return Returns a copy of this result bearing the specified key
+     */
+    public FSMTransitionResult withKey(Object key) {
+        return new FSMTransitionResult(key, fromState, message, transition, 
+                committed, error);
+    }
+    
+    /**
+     *
+     * @return Returns the key of the FSM instance; null, if not keyed
+     */
+    public Object getKey() { return key; }
+    
+    /**
+     *
+     * @return Returns the state in which the message was received
+     */
+    public String getFromState() { return fromState; }
+    
+    /**
+     *
+     * @return Returns the received message
+     */
+    public String getMessage() { return message; }
+    
+    /**
+     *
+     * @return Returns the transition matched by the message; null, if none
+     */
+    public FSMTransitionInfo getTransition() { return transition; }
+    
+    /**
+     *
+     * @return Returns the next state of the matched transition; null, if none
+     */
+    public String getNextState() { 
+        return transition == null ? null : transition.getNextState(); 
+    }
+    
+    /**
+     *
+     * @return Returns true, iff FSM transitioned to the next state
+     */
+    public boolean isCommitted() { return committed; }
+    
+    /**
+     *
+     * @return Returns the exception thrown by processing the message; null,
+     *         if none was
+     */
+    public RuntimeException getError() { return error; }
+    
+    /**
+     *
+     * @return Returns true, iff processing the message threw
+     */
+    public boolean isFailed() { return error != null; }
+    
+    @Override
+    public String toString() {
+        return (key == null ? "" : key + ":") + fromState + " --" + message 
+                + "--> " + getNextState() + (committed ? "" : " (not committed)")
+                + (error == null ? "" : " (failed: " + error + ")");
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class implements the transitions of a definition compiled into arrays
+ * indexed by state ordinal and message id<br/>
+ * 
+ * <p>
+ * Messages are numbered once for the whole definition, in an index of
+ * primitive arrays; callers keeping the id of a message, from 
+ * {@link #getMessageId(String)}, look its transitions up without hashing
+ * it at all. Each transition costs a slot of an array or two, instead of
+ * a map entry per state. The table is laid out in one of two ways,
+ * chosen from the density of the transitions, i.e. their number over the
+ * number of states times messages:
+ * <ul>
+ *  <li>dense - a row of every message for each state, read at row and 
+ *      message id; chosen for small tables, or when at least a quarter of
+ *      the cells are used.
+ *  <li>sparse - compressed rows: the sorted message ids of all states in
+ *      one array, with their transitions alongside and the start of each
+ *      state's row in a third; a message is found by a binary search of
+ *      its row without data dependent branches.
+ * </ul>
+ * A message without a transition of its own in a state takes the 
+ * transition on any message of the state, if any.<br/>
+ * The table refers to the transition objects of the states, so actions
+ * bound later are seen by it; transitions added later, or states merged,
+ * need a new table, see {@link FSMDefinition#compile()}.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public final class FSMTransitionTable {
+    
+    /* Tables up to this many cells are dense whatever their density */
+    private static final int SMALL = 4096;
+    
+    private final FSMState[] _states;
+    /* Message ids, open addressed by hash of the message */
+    private final String[] _names;
+    private final int[] _ids;
+    /* Shift taking the top bits of a scattered hash, as many as index slots */
+    private final int _shift;
+    private final int _width;
+    private final int _count;
+    private final FSMTransitionInfo[] _default;
+    private final boolean _dense;
+    /* Dense: transition at state * width + id */
+    private final FSMTransitionInfo[] _cells;
+    /* Sparse: row of state s is [rows[s], rows[s + 1]) of keys and values */
+    private final int[] _rows;
+    private final int[] _keys;
+    private final FSMTransitionInfo[] _values;
+    
+    /*
+     * Compiles the transitions of the states of a definition, in order
+     */
+    FSMTransitionTable(List<FSMState> states) {
+        int n = states.size();
+        this._states = states.toArray(new FSMState[n]);
+        this._default = new FSMTransitionInfo[n];
+        int count = 0;
+        LinkedHashSet<String> messages = new LinkedHashSet<String>();
+        for (int s = 0; s < n; s++) {
+            Map<String, FSMTransitionInfo> t = this._states[s].getNewTransitionMap();
+            this._default[s] = this._states[s].getDefaultTransition();
+            if (t == null) continue;
+            messages.addAll(t.keySet());
+            count += t.size();
+        }
+        int size = 16;
+        while (size < 2 * messages.size()) size <<= 1;
+        this._names = new String[size];
+        this._ids = new int[size];
+        this._shift = 32 - Integer.numberOfTrailingZeros(size);
+        int width = 0;
+        for (String m : messages) {
+            int i = slot(m);
+            this._names[i] = m;
+            this._ids[i] = width++;
+        }
+        this._width = width;
+        this._count = count;
+        long cells = (long) n * this._width;
+        this._dense = cells <= SMALL || cells <= 4L * count;
+        
+        if (this._dense) {
+            this._cells = new FSMTransitionInfo[(int) cells];
+            this._rows = null;
+            this._keys = null;
+            this._values = null;
+            for (int s = 0; s < n; s++) {
+                Map<String, FSMTransitionInfo> t = this._states[s].getNewTransitionMap();
+                if (t == null) continue;
+                for (Map.Entry<String, FSMTransitionInfo> e : t.entrySet()) {
+                    this._cells[s * this._width + id(e.getKey())] = e.getValue();
+                }
+            }
+        } else {
+            this._cells = null;
+            this._rows = new int[n + 1];
+            this._keys = new int[count];
+            this._values = new FSMTransitionInfo[count];
+            int p = 0;
+            for (int s = 0; s < n; s++) {
+                this._rows[s] = p;
+                Map<String, FSMTransitionInfo> t = this._states[s].getNewTransitionMap();
+                if (t == null) continue;
+                int start = p;
+                for (Map.Entry<String, FSMTransitionInfo> e : t.entrySet()) {
+                    int id = id(e.getKey());
+                    /* insertion sort; rows are short */
+                    int j = p++;
+                    while (j > start && this._keys[j - 1] > id) {
+                        this._keys[j] = this._keys[j - 1];
+                        this._values[j] = this._values[j - 1];
+                        j--;
+                    }
+                    this._keys[j] = id;
+                    this._values[j] = e.getValue();
+                }
+            }
+            this._rows[n] = p;
+        }
+    }
+    
+    /*
+     * Returns the slot of a message, or the free slot it would take
+     */
+    private int slot(String message) {
+        int mask = this._names.length - 1;
+        /* messages often differ in their last characters only, hashing to
+           runs of neighbouring values; scatter them, and take the top bits
+           of the product, which depend on all bits of the hash */
+        int i = message.hashCode() * 0x9E3779B9 >>> this._shift;
+        String k;
+        while ((k = this._names[i]) != null && k != message && !k.equals(message)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+    
+    private int id(String message) { return this._ids[slot(message)]; }
+    
+    /**
+     * 
+     * @param message Message
+     * @return Id of the message; -1, if no state has a transition of it
+     */
+    public int getMessageId(String message) {
+        if (message == null) return -1;
+        int i = slot(message);
+        return this._names[i] == null ? -1 : this._ids[i];
+    }
+    
+    /**
+     * Method returns the transition taken on a message in a state<br/>
+     * 
+     * @param ordinal Ordinal of the state
+     * @param messageId Id of the message; -1, for a message no state has
+     *        a transition of
+     * @return Transition on the message; null, if none exists
+     */
+    public FSMTransitionInfo getTransition(int ordinal, int messageId) {
+        FSMTransitionInfo t = null;
+        if (messageId >= 0) {
+            if (this._dense) {
+                t = this._cells[ordinal * this._width + messageId];
+            } else {
+                int[] keys = this._keys;
+                int lo = this._rows[ordinal], n = this._rows[ordinal + 1] - lo;
+                while (n > 1) {
+                    int half = n >>> 1;
+                    lo = keys[lo + half] <= messageId ? lo + half : lo;
+                    n -= half;
+                }
+                if (n == 1 && keys[lo] == messageId) t = this._values[lo];
+            }
+        }
+        return t != null ? t : this._default[ordinal];
+    }
+    
+    /**
+     * 
+     * @param ordinal Ordinal of the state
+     * @param message Message
+     * @return Transition on the message; null, if none exists
+     */
+    public FSMTransitionInfo getTransition(int ordinal, String message) {
+        return getTransition(ordinal, getMessageId(message));
+    }
+    
+    /**
+     * Method returns the transition taken on a message in a state, as
+     * {@link FSMState#getTransition(String)} does<br/>
+     * 
+     * @param state State
+     * @param message Message
+     * @return Transition on the message; null, if none exists
+     */
+    public FSMTransitionInfo getTransition(FSMState state, String message) {
+        int o = state.getOrdinal();
+        if (o < 0 || o >= this._states.length || this._states[o] != state) {
+            /* state not compiled in this table, such as a merged state */
+            return state.getTransition(message);
+        }
+        return getTransition(o, getMessageId(message));
+    }
+    
+    /**
+     * 
+     * @return true, if the table is dense; false, if sparse
+     */
+    public boolean isDense() { return this._dense; }
+    
+    /**
+     * 
+     * @return Number of transitions over number of states times messages
+     */
+    public double getDensity() { 
+        long cells = (long) this._states.length * this._width;
+        return cells == 0 ? 0 : (double) this._count / cells;
+    }
+    
+    /**
+     * 
+     * @return Number of distinct messages having a transition
+     */
+    public int getMessageCount() { return this._width; }
+    
+    /**
+     * 
+     * @return Number of transitions, not counting transitions on any message
+     */
+    public int getTransitionCount() { return this._count; }
+}
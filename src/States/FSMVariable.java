@@ -0,0 +1,284 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+import java.util.Arrays;
+
+/**
+ * Class implements a typed extended-state variable declared by a 
+ * definition, and its accessors<br/>
+ * 
+ * <p>
+ * A definition declares its variables, in the XML Configuration or with
+ * {@link FSMBuilder}; each FSM of the definition holds its own values, in
+ * primitive arrays of its {@link FSMVariables}. An instance of this class
+ * is the accessor of one variable, to be looked up once by name through
+ * {@link FSMDefinition#getVariable(String)} and kept, for instance in a 
+ * field of an action; reading or writing a value is then an array access,
+ * without boxing or lookup by name.<br/>
+ * Variables of type int, long, boolean and enum share the long slots of
+ * the values; double variables have double slots. An enum variable holds
+ * the ordinal of one of its declared constants. An accessor throws 
+ * IllegalStateException if the variable is not of its type.
+ * </p>
+ * 
+ * <pre>
+ * &lt;VAR id="retries" type="int" value="0"/&gt;
+ * &lt;VAR id="level" type="enum" values="LOW,MID,HIGH" value="LOW"/&gt;
+ * </pre>
+ * 
+ * @author ANKIT
+ */
+public final class FSMVariable implements java.io.Serializable {
+    private static final long serialVersionUID = 2617306127815440962L;
+    
+    /**
+     * Types of variables
+     */
+    public enum Type { INT, LONG, DOUBLE, BOOLEAN, ENUM }
+    
+    private final String _name;
+    private final Type _type;
+    private final int _slot;
+    private final String[] _values;
+    private final long _initial;
+    private final double _initialDouble;
+    
+    /*
+     * Declares a variable in a slot, parsing its initial value; the 
+     * constants of an enum are separated by commas, and its initial value 
+     * defaults to the first one.
+     */
+    FSMVariable(String name, Type type, String value, String values, int slot) {
+        this._name = name;
+        this._type = type;
+        this._slot = slot;
+        this._values = type == Type.ENUM ? constants(name, values) : null;
+        boolean none = value == null || value.isEmpty();
+        long initial = 0;
+        double initialDouble = 0;
+        try {
+            switch (type) {
+                case INT: initial = none ? 0 : Integer.parseInt(value.trim()); break;
+                case LONG: initial = none ? 0 : Long.parseLong(value.trim()); break;
+                case DOUBLE: initialDouble = none ? 0 : Double.parseDouble(value.trim()); break;
+                case BOOLEAN: initial = !none && Boolean.parseBoolean(value.trim()) ? 1 : 0; break;
+                default: initial = none ? 0 : ordinalOf(value.trim());
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid value " + value 
+                    + " of " + type + " variable " + name);
+        }
+        this._initial = initial;
+        this._initialDouble = initialDouble;
+    }
+    
+    /*
+     * Parses the constants of an enum variable, none of which can be empty
+     */
+    private static String[] constants(String name, String values) {
+        if (values == null || values.trim().isEmpty()) {
+            throw new IllegalArgumentException("Enum variable " + name 
+                    + " without values");
+        }
+        String[] c = values.trim().split("\\s*,\\s*", -1);
+        for (String v : c) {
+            if (v.isEmpty()) {
+                throw new IllegalArgumentException("Empty constant in values " 
+                        + values + " of enum variable " + name);
+            }
+        }
+        return c;
+    }
+    
+    /*
+     * Parses the type of a variable as written in the XML Configuration
+     */
+    static Type type(String name, String type) {
+        try {
+            return Type.valueOf(type.trim().toUpperCase(java.util.Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid type " + type 
+                    + " of variable " + name);
+        }
+    }
+    
+    public String getName() { return this._name; }
+    
+    public Type getType() { return this._type; }
+    
+    /**
+     * 
+     * @return Constants of an enum variable, in order; null, for other types
+     */
+    public String[] getValues() { 
+        return this._values == null ? null : this._values.clone(); 
+    }
+    
+    int getSlot() { return this._slot; }
+    
+    boolean isDouble() { return this._type == Type.DOUBLE; }
+    
+    long getInitial() { return this._initial; }
+    
+    double getInitialDouble() { return this._initialDouble; }
+    
+    private void check(Type type) {
+        if (this._type != type) {
+            throw new IllegalStateException("Variable " + this._name + " is "
+                    + this._type + ", not " + type);
+        }
+    }
+    
+    public int getInt(FSMVariables v) {
+        check(Type.INT);
+        return (int) v._longs[this._slot];
+    }
+    
+    public void setInt(FSMVariables v, int value) {
+        check(Type.INT);
+        v._longs[this._slot] = value;
+    }
+    
+    public long getLong(FSMVariables v) {
+        check(Type.LONG);
+        return v._longs[this._slot];
+    }
+    
+    public void setLong(FSMVariables v, long value) {
+        check(Type.LONG);
+        v._longs[this._slot] = value;
+    }
+    
+    /**
+     * Method adds to an int or long variable, as to a counter<br/>
+     * An int variable wraps around as an int does.<br/>
+     * 
+     * @param v Values of a FSM
+     * @param delta Value to be added
+     * @return New value
+     */
+    public long add(FSMVariables v, long delta) {
+        if (this._type == Type.INT) {
+            int n = (int) v._longs[this._slot] + (int) delta;
+            v._longs[this._slot] = n;
+            return n;
+        }
+        check(Type.LONG);
+        return v._longs[this._slot] += delta;
+    }
+    
+    public double getDouble(FSMVariables v) {
+        check(Type.DOUBLE);
+        return v._doubles[this._slot];
+    }
+    
+    public void setDouble(FSMVariables v, double value) {
+        check(Type.DOUBLE);
+        v._doubles[this._slot] = value;
+    }
+    
+    public boolean getBoolean(FSMVariables v) {
+        check(Type.BOOLEAN);
+        return v._longs[this._slot] != 0;
+    }
+    
+    public void setBoolean(FSMVariables v, boolean value) {
+        check(Type.BOOLEAN);
+        v._longs[this._slot] = value ? 1 : 0;
+    }
+    
+    /**
+     * 
+     * @param v Values of a FSM
+     * @return Ordinal of the constant of an enum variable
+     */
+    public int getOrdinal(FSMVariables v) {
+        check(Type.ENUM);
+        return (int) v._longs[this._slot];
+    }
+    
+    /**
+     * 
+     * @param v Values of a FSM
+     * @param ordinal Ordinal of the constant of an enum variable
+     * @throws IndexOutOfBoundsException if no such constant is declared
+     */
+    public void setOrdinal(FSMVariables v, int ordinal) {
+        check(Type.ENUM);
+        if (ordinal < 0 || ordinal >= this._values.length) {
+            throw new IndexOutOfBoundsException("Variable " + this._name 
+                    + " has no constant " + ordinal);
+        }
+        v._longs[this._slot] = ordinal;
+    }
+    
+    /**
+     * 
+     * @param v Values of a FSM
+     * @return Constant of an enum variable
+     */
+    public String getEnum(FSMVariables v) {
+        return this._values[getOrdinal(v)];
+    }
+    
+    /**
+     * 
+     * @param v Values of a FSM
+     * @param value Constant of an enum variable
+     * @throws IllegalArgumentException if no such constant is declared
+     */
+    public void setEnum(FSMVariables v, String value) {
+        check(Type.ENUM);
+        v._longs[this._slot] = ordinalOf(value);
+    }
+    
+    private int ordinalOf(String value) {
+        for (int i = 0; i < this._values.length; i++) {
+            if (this._values[i].equals(value)) return i;
+        }
+        throw new IllegalArgumentException("Variable " + this._name 
+                + " has no constant " + value + " of " + Arrays.toString(this._values));
+    }
+    
+    /**
+     * Method returns the value of the variable as an object, for display
+     * or inspection; actions shall use the typed accessors<br/>
+     * 
+     * @param v Values of a FSM
+     * @return Boxed value; the constant, for an enum variable
+     */
+    public Object get(FSMVariables v) {
+        switch (this._type) {
+            case INT: return getInt(v);
+            case LONG: return getLong(v);
+            case DOUBLE: return getDouble(v);
+            case BOOLEAN: return getBoolean(v);
+            default: return getEnum(v);
+        }
+    }
+    
+    @Override
+    public String toString() { return this._type + " " + this._name; }
+}
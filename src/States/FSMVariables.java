@@ -0,0 +1,126 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package States;
+
+import java.util.Arrays;
+
+/**
+ * Class implements the values of the extended-state variables of one 
+ * FSM<br/>
+ * 
+ * <p>
+ * Values are kept in two primitive arrays, one for the int, long, boolean
+ * and enum variables of the definition and one for its double variables;
+ * they are read and written through the {@link FSMVariable} accessors of 
+ * the definition. Like the current state, the values belong to a single 
+ * FSM, and are not thread-safe beyond what the FSM guarantees for its 
+ * transitions.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public final class FSMVariables implements java.io.Serializable {
+    private static final long serialVersionUID = -3034271398734316548L;
+    
+    private final FSMVariable[] _variables;
+    final long[] _longs;
+    final double[] _doubles;
+    
+    /*
+     * Creates values of the variables, at their initial values
+     */
+    FSMVariables(FSMVariable[] variables, int longs, int doubles) {
+        this._variables = variables;
+        this._longs = new long[longs];
+        this._doubles = new double[doubles];
+        reset();
+    }
+    
+    private FSMVariables(FSMVariables other) {
+        this._variables = other._variables;
+        this._longs = other._longs.clone();
+        this._doubles = other._doubles.clone();
+    }
+    
+    /**
+     * Method sets all variables back to their initial values<br/>
+     */
+    public void reset() {
+        for (FSMVariable v : this._variables) {
+            if (v.isDouble()) this._doubles[v.getSlot()] = v.getInitialDouble();
+            else this._longs[v.getSlot()] = v.getInitial();
+        }
+    }
+    
+    /**
+     * 
+     * @return Copy of the values
+     */
+    public FSMVariables copy() { return new FSMVariables(this); }
+    
+    /**
+     * Method sets all variables to the values of others of the same 
+     * definition<br/>
+     * 
+     * @param other Values to be copied
+     * @throws IllegalArgumentException if the values are of other variables
+     */
+    public void copyFrom(FSMVariables other) {
+        if (other._longs.length != this._longs.length 
+                || other._doubles.length != this._doubles.length) {
+            throw new IllegalArgumentException("Values of other variables");
+        }
+        System.arraycopy(other._longs, 0, this._longs, 0, this._longs.length);
+        System.arraycopy(other._doubles, 0, this._doubles, 0, this._doubles.length);
+    }
+    
+    /**
+     * 
+     * @return Declared variables
+     */
+    public FSMVariable[] getVariables() { return this._variables.clone(); }
+    
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("{");
+        for (FSMVariable v : this._variables) {
+            if (b.length() > 1) b.append(", ");
+            b.append(v.getName()).append('=').append(v.get(this));
+        }
+        return b.append('}').toString();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FSMVariables)) return false;
+        FSMVariables v = (FSMVariables) o;
+        return Arrays.equals(this._longs, v._longs) 
+                && Arrays.equals(this._doubles, v._doubles);
+    }
+    
+    @Override
+    public int hashCode() { 
+        return 31 * Arrays.hashCode(this._longs) + Arrays.hashCode(this._doubles); 
+    }
+}
@@ -0,0 +1,510 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Store;
+
+import Action.FSMAction;
+import FSM.FSM;
+import FSM.FSMDedupCache;
+import States.FSMDefinition;
+import States.FSMTransitionResult;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class implements a bounded cache of FSM instances, by key<br/>
+ * 
+ * <p>
+ * At most the specified number of instances is kept on the heap. When the
+ * cache is full, the least recently used instance is passivated; instances
+ * left idle for the specified time are passivated as well. A message for a
+ * passivated key transparently reactivates its instance in the state it
+ * was left in; a key never seen starts in the initial state.<br/>
+ * The state of an instance is recorded as dirty on each committed
+ * transition, and dirty states are written to the {@link StateStore} in
+ * batches, behind the processing of messages. Passivation itself does not
+ * write anything, as the latest state is already recorded.<br/>
+ * Should the store keep failing, states not yet written are bounded: once
+ * they reach four times the batch size, an instance is created or 
+ * reactivated only after they are written by the calling thread, which 
+ * fails with the error of the store if they still can not be.<br/>
+ * Only the current state of an instance is kept; its shared data is not.
+ * Definitions declaring extended-state variables are hence not accepted,
+ * as their values would be lost on passivation.
+ * Messages for the same key are processed one at a time; messages for
+ * different keys can be processed concurrently.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMInstanceCache {
+    
+    private static final Logger LOG = Logger.getLogger(FSMInstanceCache.class.getName());
+    
+    private final FSMDefinition _definition;
+    private final FSMAction _action;
+    private final StateStore _store;
+    private final int _maxInstances;
+    private final long _idleNanos;
+    private final int _maxDirty;
+    private final int _maxPending;
+    
+    /* Instances in access order; guarded by itself */
+    private final LinkedHashMap<String, Entry> _instances;
+    /* Instances removed from the cache and not yet passivated; guarded 
+       by _instances */
+    private final HashMap<String, Entry> _passivating = new HashMap<String, Entry>();
+    /* States not yet written, and states being written; guarded by _dirtyLock */
+    private HashMap<String, String> _dirty = new HashMap<String, String>();
+    private HashMap<String, String> _writing = new HashMap<String, String>();
+    private final Object _dirtyLock = new Object();
+    private final Object _writeLock = new Object();
+    private final ScheduledExecutorService _flusher;
+    private final AtomicBoolean _flushQueued = new AtomicBoolean();
+    private volatile FSMDedupCache _dedup;
+    
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _activations = new AtomicLong();
+    private final AtomicLong _passivations = new AtomicLong();
+    private final AtomicLong _writes = new AtomicLong();
+    
+    /*
+     * A cached instance and the time it was last used
+     */
+    private static final class Entry {
+        final FSM fsm;
+        long lastUsed;
+        boolean passivated;
+        Entry(FSM fsm) { this.fsm = fsm; }
+    }
+    
+    /**
+     * 
+     * @param definition   Definition of the FSM instances
+     * @param action       Default action of the FSM instances
+     * @param store        Store of passivated states
+     * @param maxInstances Maximum number of instances kept on the heap
+     * @param idleMillis   Time after which an unused instance is passivated;
+     *                     0 passivates on size only
+     * @param flushMillis  Interval at which dirty states are written
+     * @throws IllegalArgumentException if the definition declares 
+     *         extended-state variables
+     */
+    public FSMInstanceCache(FSMDefinition definition, FSMAction action, 
+            StateStore store, int maxInstances, long idleMillis, long flushMillis) {
+        if (!definition.getVariables().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Variables of passivated FSMs can not be stored");
+        }
+        this._definition = definition;
+        this._action = action;
+        this._store = store;
+        this._maxInstances = Math.max(1, maxInstances);
+        this._idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this._maxDirty = Math.max(1024, this._maxInstances);
+        this._maxPending = 4 * this._maxDirty;
+        this._instances = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this._flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fsm-cache-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        this._flusher.scheduleWithFixedDelay(() -> {
+            try {
+                evictIdle();
+                flush();
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Writing dirty FSM states failed", ex);
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Method processes a message on the FSM instance of a key, reactivating
+     * the instance if needed<br/>
+     * 
+     * @param key     Key of the FSM instance
+     * @param message Message to be processed
+     * @return Result of the transition
+     * @throws IOException if the state of a passivated instance can not be
+     *         read, or if states pending beyond the limit can not be written
+     */
+    public FSMTransitionResult process(String key, String message) 
+            throws IOException {
+        return process(key, message, null);
+    }
+    
+    /**
+     * Method processes a message along with a payload of its own on the FSM
+     * instance of a key, reactivating the instance if needed<br/>
+     * The payload is passed to the actions and hooks run for this message,
+     * as by {@link FSM#process(String, Object)}.<br/>
+     * 
+     * @param key     Key of the FSM instance
+     * @param message Message to be processed
+     * @param payload Data of this message; can be null
+     * @return Result of the transition
+     * @throws IOException if the state of a passivated instance can not be
+     *         read, or if states pending beyond the limit can not be written
+     */
+    public FSMTransitionResult process(String key, String message, Object payload) 
+            throws IOException {
+        while (true) {
+            Entry e = activate(key);
+            synchronized (e) {
+                if (e.passivated) continue;
+                return process(e, key, message, payload);
+            }
+        }
+    }
+    
+    /*
+     * Processes a message on an active entry, whose lock is held, and 
+     * records the new state. Once committed, a transition is not failed 
+     * by the store: the flusher is asked to write the dirty states when 
+     * they reach the limit, and retries on schedule if that fails.
+     */
+    private FSMTransitionResult process(Entry e, String key, String message,
+            Object payload) {
+        FSMTransitionResult r = e.fsm.process(message, payload);
+        if (r.isCommitted()) {
+            boolean full;
+            synchronized (this._dirtyLock) {
+                this._dirty.put(key, e.fsm.getCurrentState());
+                full = this._dirty.size() == this._maxDirty;
+            }
+            if (full) flushLater();
+        }
+        return r.withKey(key);
+    }
+    
+    /*
+     * Has the flusher write the dirty states now, unless already asked to
+     */
+    private void flushLater() {
+        if (!this._flushQueued.compareAndSet(false, true)) return;
+        try {
+            this._flusher.execute(() -> {
+                this._flushQueued.set(false);
+                try {
+                    flush();
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "Writing dirty FSM states failed", ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            /* Closed; states are written by close */
+            this._flushQueued.set(false);
+        }
+    }
+    
+    /**
+     * Method processes a message bearing an idempotency key on the FSM
+     * instance of a key<br/>
+     * Idempotency keys are scoped by the key of the instance. A message 
+     * whose key was already processed by the instance is answered with the
+     * result of its first delivery, without reactivating the instance if
+     * it is passivated; without a cache set by {@link #setDedupCache}, the
+     * message is processed as by {@link #process(String, String)}.<br/>
+     * 
+     * @param key     Key of the FSM instance
+     * @param idempotencyKey Key identifying the message across deliveries
+     * @param message Message to be processed
+     * @return Result of the transition
+     * @throws IOException if the state of a passivated instance can not be
+     *         read, or if states pending beyond the limit can not be written
+     */
+    public FSMTransitionResult processOnce(String key, String idempotencyKey,
+            String message) throws IOException {
+        FSMDedupCache c = this._dedup;
+        if (c == null || idempotencyKey == null) return process(key, message);
+        long h = FSMDedupCache.hash(key, idempotencyKey);
+        FSMTransitionResult r = c.get(h, this._definition, message);
+        if (r != null) return r.withKey(key);
+        while (true) {
+            Entry e = activate(key);
+            synchronized (e) {
+                if (e.passivated) continue;
+                /* A delivery processed meanwhile was recorded under the entry */
+                r = c.get(h, this._definition, message);
+                if (r != null) return r.withKey(key);
+                r = process(e, key, message, null);
+                c.put(h, r, this._definition);
+                return r;
+            }
+        }
+    }
+    
+    /**
+     * Method sets the cache of idempotency keys used by 
+     * {@link #processOnce}<br/>
+     * 
+     * @param cache Cache; null, to process every message
+     */
+    public void setDedupCache(FSMDedupCache cache) { this._dedup = cache; }
+    
+    /**
+     * 
+     * @param key Key of the FSM instance
+     * @return Current state of the instance, reactivating it if needed
+     * @throws IOException if the state of a passivated instance can not be
+     *         read, or if states pending beyond the limit can not be written
+     */
+    public String getState(String key) throws IOException {
+        Entry e = activate(key);
+        synchronized (e) {
+            return e.fsm.getCurrentState();
+        }
+    }
+    
+    /*
+     * Returns the cached entry of a key, creating it from the latest known
+     * state when not cached. The store is read outside the cache lock, and
+     * evicted entries are passivated outside it, so that neither a slow 
+     * store nor an entry busy processing stalls other keys. An entry of 
+     * the key still being passivated is passivated first, so that its last
+     * state is recorded before being read.
+     * Locks are nested in the order: cache, dirty states; entry, dirty states.
+     */
+    private Entry activate(String key) throws IOException {
+        while (true) {
+            Entry stale;
+            synchronized (this._instances) {
+                Entry e = this._instances.get(key);
+                if (e != null) {
+                    this._hits.incrementAndGet();
+                    e.lastUsed = System.nanoTime();
+                    return e;
+                }
+                stale = this._passivating.get(key);
+            }
+            if (stale != null) {
+                passivate(key, stale);
+                continue;
+            }
+            reserve();
+            String state = pendingState(key);
+            if (state == null) state = this._store.load(key);
+            
+            Entry e;
+            List<Map.Entry<String, Entry>> victims = new ArrayList<Map.Entry<String, Entry>>();
+            synchronized (this._instances) {
+                e = this._instances.get(key);
+                if (e != null) return e;
+                if (this._passivating.containsKey(key)) continue;
+                /* A state recorded meanwhile supersedes the one read */
+                String pending = pendingState(key);
+                if (pending != null) state = pending;
+                FSM f = new FSM(this._definition, this._action);
+                if (state != null) f.setCurrentState(state);
+                e = new Entry(f);
+                e.lastUsed = System.nanoTime();
+                this._instances.put(key, e);
+                this._activations.incrementAndGet();
+                for (Iterator<Map.Entry<String, Entry>> it = 
+                        this._instances.entrySet().iterator();
+                        this._instances.size() > this._maxInstances;) {
+                    Map.Entry<String, Entry> v = it.next();
+                    it.remove();
+                    this._passivating.put(v.getKey(), v.getValue());
+                    victims.add(v);
+                }
+            }
+            passivate(victims);
+            return e;
+        }
+    }
+    
+    /*
+     * Writes the states not yet written in the calling thread, if they 
+     * reached the limit, before an instance is added; adding one evicts 
+     * another, whose state would otherwise be kept on top of them. No lock
+     * is held, so that the store is not written under the cache lock.
+     */
+    private void reserve() throws IOException {
+        while (true) {
+            synchronized (this._dirtyLock) {
+                if (this._dirty.size() + this._writing.size() < this._maxPending) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+    
+    /*
+     * Passivates entries removed from the cache, once its lock is released
+     */
+    private void passivate(List<Map.Entry<String, Entry>> victims) {
+        for (Map.Entry<String, Entry> v : victims) passivate(v.getKey(), v.getValue());
+    }
+    
+    /*
+     * Returns the state recorded for a key but not yet written, if any.
+     */
+    private String pendingState(String key) {
+        synchronized (this._dirtyLock) {
+            String state = this._dirty.get(key);
+            return state != null ? state : this._writing.get(key);
+        }
+    }
+    
+    /*
+     * Marks an entry passivated, once any message being processed on it is
+     * done and its state recorded; a thread holding the entry retries.
+     */
+    private void passivate(String key, Entry e) {
+        boolean first;
+        synchronized (e) {
+            first = !e.passivated;
+            e.passivated = true;
+        }
+        if (first) this._passivations.incrementAndGet();
+        synchronized (this._instances) {
+            this._passivating.remove(key, e);
+        }
+    }
+    
+    /*
+     * Passivates instances idle for longer than the idle time. Entries are
+     * in access order, so scanning stops at the first recently used one.
+     */
+    private void evictIdle() {
+        if (this._idleNanos <= 0) return;
+        long now = System.nanoTime();
+        List<Map.Entry<String, Entry>> victims = new ArrayList<Map.Entry<String, Entry>>();
+        synchronized (this._instances) {
+            for (Iterator<Map.Entry<String, Entry>> it = 
+                    this._instances.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Entry> v = it.next();
+                if (now - v.getValue().lastUsed < this._idleNanos) break;
+                it.remove();
+                this._passivating.put(v.getKey(), v.getValue());
+                victims.add(v);
+            }
+        }
+        passivate(victims);
+    }
+    
+    /**
+     * Method writes all dirty states to the store<br/>
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        synchronized (this._writeLock) {
+            HashMap<String, String> batch;
+            synchronized (this._dirtyLock) {
+                if (this._dirty.isEmpty()) return;
+                batch = this._dirty;
+                this._writing = batch;
+                this._dirty = new HashMap<String, String>();
+            }
+            try {
+                this._store.storeAll(batch);
+                this._writes.addAndGet(batch.size());
+            } catch (IOException ex) {
+                synchronized (this._dirtyLock) {
+                    /* Keep states for the next attempt, unless superseded */
+                    for (Map.Entry<String, String> e : batch.entrySet()) {
+                        if (!this._dirty.containsKey(e.getKey())) {
+                            this._dirty.put(e.getKey(), e.getValue());
+                        }
+                    }
+                }
+                throw ex;
+            } finally {
+                synchronized (this._dirtyLock) {
+                    this._writing = new HashMap<String, String>();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method stops the background writer and writes all dirty states<br/>
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        this._flusher.shutdownNow();
+        flush();
+    }
+    
+    /**
+     * 
+     * @return Number of instances currently on the heap
+     */
+    public int size() {
+        synchronized (this._instances) {
+            return this._instances.size();
+        }
+    }
+    
+    /**
+     * 
+     * @return Number of states not yet written to the store
+     */
+    public int getDirtyCount() {
+        synchronized (this._dirtyLock) {
+            return this._dirty.size();
+        }
+    }
+    
+    /**
+     * 
+     * @return Number of messages for instances found on the heap
+     */
+    public long getHitCount() { return this._hits.get(); }
+    
+    /**
+     * 
+     * @return Number of instances created or reactivated
+     */
+    public long getActivationCount() { return this._activations.get(); }
+    
+    /**
+     * 
+     * @return Number of instances passivated
+     */
+    public long getPassivationCount() { return this._passivations.get(); }
+    
+    /**
+     * 
+     * @return Number of states written to the store
+     */
+    public long getWriteCount() { return this._writes.get(); }
+}
@@ -0,0 +1,188 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Class implements a state store within a directory<br/>
+ * 
+ * <p>
+ * Keys are spread over a fixed number of bucket files by their hash; a
+ * bucket holds the states of its keys as a properties file. A batch of
+ * states rewrites each bucket it touches once, through a temporary file
+ * renamed over the bucket, so that a bucket is never left half written.
+ * Reading the state of a key parses its whole bucket, under the lock of
+ * the bucket; the contents of the most recently used buckets are hence 
+ * kept, and kept up to date by writes, so that reactivating keys of the
+ * same buckets does not parse them again. The directory shall not be 
+ * written by anyone else while the store is in use. As any {@link StateStore}, it holds state names only, not the values of
+ * extended-state variables.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FileStateStore implements StateStore {
+    
+    private static final int CACHED_BUCKETS = 16;
+    
+    private final File _dir;
+    private final int _buckets;
+    private final Object[] _locks;
+    /* Contents of the most recently used buckets; guarded by itself */
+    private final LinkedHashMap<Integer, Properties> _cached = 
+            new LinkedHashMap<Integer, Properties>(16, 0.75f, true);
+    
+    /**
+     * 
+     * @param dir     Directory holding the bucket files; created if needed
+     * @param buckets Number of bucket files
+     * @throws IOException
+     */
+    public FileStateStore(File dir, int buckets) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create directory " + dir);
+        }
+        this._dir = dir;
+        this._buckets = Math.max(1, buckets);
+        this._locks = new Object[this._buckets];
+        for (int i = 0; i < this._buckets; i++) this._locks[i] = new Object();
+    }
+    
+    /**
+     * 
+     * @param dir     Directory holding the bucket files; created if needed
+     * @throws IOException
+     */
+    public FileStateStore(File dir) throws IOException {
+        this(dir, 256);
+    }
+    
+    @Override
+    public String load(String key) throws IOException {
+        int b = bucket(key);
+        synchronized (this._locks[b]) {
+            return read(b).getProperty(key);
+        }
+    }
+    
+    @Override
+    public void storeAll(Map<String, String> states) throws IOException {
+        HashMap<Integer, List<Map.Entry<String, String>>> byBucket = 
+                new HashMap<Integer, List<Map.Entry<String, String>>>();
+        for (Map.Entry<String, String> e : states.entrySet()) {
+            int b = bucket(e.getKey());
+            List<Map.Entry<String, String>> l = byBucket.get(b);
+            if (l == null) {
+                l = new ArrayList<Map.Entry<String, String>>();
+                byBucket.put(b, l);
+            }
+            l.add(e);
+        }
+        for (Map.Entry<Integer, List<Map.Entry<String, String>>> e : 
+                byBucket.entrySet()) {
+            int b = e.getKey();
+            synchronized (this._locks[b]) {
+                Properties p = read(b);
+                for (Map.Entry<String, String> s : e.getValue()) {
+                    p.setProperty(s.getKey(), s.getValue());
+                }
+                try {
+                    write(b, p);
+                } catch (IOException ex) {
+                    /* Contents no longer match the file */
+                    synchronized (this._cached) {
+                        this._cached.remove(b);
+                    }
+                    throw ex;
+                }
+            }
+        }
+    }
+    
+    private int bucket(String key) {
+        return (key.hashCode() & 0x7fffffff) % this._buckets;
+    }
+    
+    private File file(int b) {
+        return new File(this._dir, "states-" + b + ".properties");
+    }
+    
+    /*
+     * Returns the contents of a bucket, whose lock is held
+     */
+    private Properties read(int b) throws IOException {
+        Properties p;
+        synchronized (this._cached) {
+            p = this._cached.get(b);
+        }
+        if (p != null) return p;
+        p = new Properties();
+        File f = file(b);
+        if (f.exists()) {
+            InputStream in = new FileInputStream(f);
+            try {
+                p.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        synchronized (this._cached) {
+            this._cached.put(b, p);
+            Iterator<Integer> it = this._cached.keySet().iterator();
+            while (this._cached.size() > CACHED_BUCKETS) {
+                it.next();
+                it.remove();
+            }
+        }
+        return p;
+    }
+    
+    private void write(int b, Properties p) throws IOException {
+        File f = file(b);
+        File t = new File(this._dir, f.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(t);
+        try {
+            p.store(out, null);
+        } finally {
+            out.close();
+        }
+        Files.move(t.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Store;
+
+import FSM.FSMDedupCache;
+import States.FSMDefinition;
+import States.FSMState;
+import States.FSMTransitionInfo;
+import States.FSMTransitionResult;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class implements a state store shared by processes through a memory
+ * mapped file<br/>
+ * 
+ * <p>
+ * The file holds a fixed number of slots, each keeping the hash of a key
+ * and the ordinal of the current state of its instance. Processes of the 
+ * same host mapping the file see each other's states at once, without any
+ * network or database in between: slots are claimed and states advanced 
+ * by atomic compare-and-set on the mapped memory.<br/>
+ * A key takes the first free slot from the position of its hash on; slots 
+ * are never freed. A new key is in the initial state. Keys are told apart
+ * by their 64 bit hash only, as by {@link FSMDedupCache}.<br/>
+ * The file records the capacity and a fingerprint of the state names of 
+ * the definition; every process shall map it with the same definition, 
+ * minimized or not alike. A slot has no room for extended-state 
+ * variables; definitions declaring any are not accepted. The mapping is released by {@link #close()}, or
+ * else when the store is collected.<br/>
+ * {@link #process(String, String)} advances a state without running 
+ * actions; a process running actions reads the state, runs its FSM on a
+ * copy of it, and commits the new state by 
+ * {@link #compareAndSet(String, String, String)}.<br/>
+ * All methods can be called concurrently, by threads and processes alike.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class MappedStateStore implements StateStore {
+    
+    private static final long MAGIC = 0x4541535946534d31L; /* EASYFSM1 */
+    private static final int HEADER = 64;
+    private static final int SLOT = 16;
+    
+    private static final VarHandle LONGS = 
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = 
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    
+    private final FSMDefinition _definition;
+    /* null, once closed */
+    private volatile MappedByteBuffer _map;
+    private final int _capacity;
+    
+    /**
+     * 
+     * @param file File shared by the processes; created if needed
+     * @param definition Definition of the instances
+     * @param capacity Number of slots of a new file
+     * @throws IOException if the file can not be mapped, or was created for
+     *         another definition
+     * @throws IllegalArgumentException if the definition declares 
+     *         extended-state variables
+     */
+    public MappedStateStore(File file, FSMDefinition definition, int capacity) 
+            throws IOException {
+        if (!definition.getVariables().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Variables can not be stored in a mapped state store");
+        }
+        this._definition = definition;
+        long fingerprint = fingerprint(definition);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel ch = raf.getChannel()) {
+            /* the file is created and checked by one process at a time */
+            FileLock lock = ch.lock();
+            try {
+                if (ch.size() == 0) {
+                    raf.setLength(HEADER + (long) capacity * SLOT);
+                    raf.writeLong(MAGIC);
+                    raf.writeInt(capacity);
+                    raf.writeInt(definition.getAllStates().size());
+                    raf.writeLong(fingerprint);
+                }
+                raf.seek(0);
+                if (raf.readLong() != MAGIC) {
+                    throw new IOException(file + " is not a state store");
+                }
+                this._capacity = raf.readInt();
+                raf.readInt();
+                if (raf.readLong() != fingerprint) {
+                    throw new IOException(file + " holds states of another definition");
+                }
+                this._map = ch.map(FileChannel.MapMode.READ_WRITE, 0, 
+                        HEADER + (long) this._capacity * SLOT);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+    
+    /*
+     * Hash of the state names, in order
+     */
+    private static long fingerprint(FSMDefinition definition) {
+        StringBuilder b = new StringBuilder();
+        for (Object s : definition.getAllStates()) {
+            b.append(((FSMState) s).getCurrentState()).append('\n');
+        }
+        return FSMDedupCache.hash(b.toString());
+    }
+    
+    /*
+     * Returns the offset of the slot of a key, claiming a free slot if 
+     * asked to; -1, if the key has no slot
+     */
+    private int slot(MappedByteBuffer m, String key, boolean claim) {
+        long h = FSMDedupCache.hash(key);
+        /* 0 marks a free slot */
+        if (h == 0) h = 1;
+        int start = (int) Long.remainderUnsigned(h, this._capacity);
+        for (int n = 0; n < this._capacity; n++) {
+            int off = HEADER + ((start + n) % this._capacity) * SLOT;
+            long k = (long) LONGS.getVolatile(m, off);
+            if (k == h) return off;
+            if (k == 0) {
+                if (!claim) return -1;
+                if (LONGS.compareAndSet(m, off, 0L, h)) return off;
+                if ((long) LONGS.getVolatile(m, off) == h) return off;
+            }
+        }
+        if (!claim) return -1;
+        throw new IllegalStateException("State store is full");
+    }
+    
+    /*
+     * Returns the mapping, unless the store is closed
+     */
+    private MappedByteBuffer map() {
+        MappedByteBuffer m = this._map;
+        if (m == null) throw new IllegalStateException("State store is closed");
+        return m;
+    }
+    
+    private String name(int ordinal) {
+        return this._definition.getState(ordinal).getCurrentState();
+    }
+    
+    private int ordinal(String state) {
+        FSMState s = this._definition.getState(state);
+        if (s == null) throw new IllegalArgumentException("No state named " + state);
+        return s.getOrdinal();
+    }
+    
+    @Override
+    public String load(String key) {
+        MappedByteBuffer m = map();
+        int off = slot(m, key, false);
+        return off < 0 ? null : name((int) INTS.getVolatile(m, off + 8));
+    }
+    
+    @Override
+    public void storeAll(Map<String, String> states) {
+        MappedByteBuffer m = map();
+        for (Map.Entry<String, String> e : states.entrySet()) {
+            int o = ordinal(e.getValue());
+            INTS.setVolatile(m, slot(m, e.getKey(), true) + 8, o);
+        }
+    }
+    
+    /**
+     * Method returns the state of an instance, adding it in the initial
+     * state if unknown<br/>
+     * 
+     * @param key Key of the instance
+     * @return Current state
+     */
+    public String getState(String key) {
+        MappedByteBuffer m = map();
+        return name((int) INTS.getVolatile(m, slot(m, key, true) + 8));
+    }
+    
+    /**
+     * Method sets the state of an instance if it is in the expected 
+     * state<br/>
+     * 
+     * @param key Key of the instance
+     * @param expected Expected current state
+     * @param state New state
+     * @return true, iff the state was set
+     */
+    public boolean compareAndSet(String key, String expected, String state) {
+        MappedByteBuffer m = map();
+        return INTS.compareAndSet(m, slot(m, key, true) + 8, 
+                ordinal(expected), ordinal(state));
+    }
+    
+    /**
+     * Method processes a message on the state of an instance, adding it in
+     * the initial state if unknown<br/>
+     * The transition of the message in the current state is committed by
+     * compare-and-set, retried if another thread or process changed the 
+     * state meanwhile. No action or hook is run.<br/>
+     * 
+     * @param key Key of the instance
+     * @param message Message to be processed
+     * @return Result of the transition
+     */
+    public FSMTransitionResult process(String key, String message) {
+        MappedByteBuffer m = map();
+        int off = slot(m, key, true) + 8;
+        while (true) {
+            int o = (int) INTS.getVolatile(m, off);
+            FSMState from = this._definition.getState(o);
+            FSMTransitionInfo t = from.getTransition(message);
+            FSMState next = t == null ? null : this._definition.getState(t.getNextState());
+            if (next == null) {
+                return new FSMTransitionResult(key, from.getCurrentState(), 
+                        message, t, false);
+            }
+            if (INTS.compareAndSet(m, off, o, next.getOrdinal())) {
+                return new FSMTransitionResult(key, from.getCurrentState(), 
+                        message, t, true);
+            }
+        }
+    }
+    
+    /**
+     * Method counts the instances in each state<br/>
+     * 
+     * @return Number of instances by ordinal of their state
+     */
+    public int[] getCounts() {
+        MappedByteBuffer m = map();
+        List<?> states = this._definition.getAllStates();
+        int[] c = new int[states.size()];
+        for (int i = 0; i < this._capacity; i++) {
+            int off = HEADER + i * SLOT;
+            if ((long) LONGS.getVolatile(m, off) != 0) {
+                c[(int) INTS.getVolatile(m, off + 8)]++;
+            }
+        }
+        return c;
+    }
+    
+    /**
+     * 
+     * @return Number of slots
+     */
+    public int getCapacity() { return this._capacity; }
+    
+    /**
+     * Method writes the mapped states to the file<br/>
+     * States are shared by processes without it; it is needed only for
+     * the states to outlive a crash of the host.<br/>
+     */
+    public void force() { map().force(); }
+    
+    /**
+     * Method writes the mapped states to the file and releases the 
+     * mapping<br/>
+     * It shall be called once no thread uses the store any more; the store
+     * can not be used afterwards. Where the mapping can not be released at 
+     * once, it is released when collected.<br/>
+     */
+    public void close() {
+        MappedByteBuffer m;
+        synchronized (this) {
+            m = this._map;
+            this._map = null;
+        }
+        if (m == null) return;
+        m.force();
+        unmap(m);
+    }
+    
+    /*
+     * Releases a mapping through the cleaner of the buffer, which the JDK
+     * exposes by sun.misc.Unsafe only
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            c.getMethod("invokeCleaner", ByteBuffer.class).invoke(f.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            /* left to the collector */
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Store;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Interface of a store holding the current state of passivated FSM 
+ * instances, by key<br/>
+ * 
+ * Only the name of the state is stored; the values of extended-state 
+ * variables are not, and FSMs of definitions declaring variables can not
+ * be passivated through a store.<br/>
+ * Implementations shall be safe for concurrent use.<br/>
+ * 
+ * @author ANKIT
+ */
+public interface StateStore {
+    
+    /**
+     * 
+     * @param key Key of the FSM instance
+     * @return Stored state of the instance; null, if none is stored
+     * @throws IOException
+     */
+    public String load(String key) throws IOException;
+    
+    /**
+     * Stores a batch of states at once
+     * 
+     * @param states States of FSM instances, by key
+     * @throws IOException
+     */
+    public void storeAll(Map<String, String> states) throws IOException;
+}
@@ -0,0 +1,380 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Tools;
+
+import FSM.FSM;
+import States.FSMState;
+import States.FSMTransitionInfo;
+import States.FSMStates;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class drives FSMs of a configuration with generated traffic, and 
+ * reports their throughput, latency and allocation rate<br/>
+ * 
+ * <p>
+ * The configuration is loaded through {@link FSMStates}; each thread drives
+ * its own FSM instances in turn. Messages are either picked at random among
+ * the transitions of the current state of an instance, or replayed from a
+ * recorded trace, each line of which is one sequence of messages separated
+ * by white space or commas; an instance is reset after its sequence, and
+ * takes the next one.<br/>
+ * Without a rate, threads send messages as fast as they can (closed loop).
+ * With a rate, messages are sent on a fixed schedule whatever the latency 
+ * (open loop), and latency is measured from the time a message was due, so
+ * that a stall counts against every message held up by it.<br/>
+ * Allocation rate is read from the JVM per thread, where supported.
+ * </p>
+ * 
+ * <p>
+ * Usage: java Tools.FSMLoadGenerator config.xml [--threads N] 
+ *        [--instances N] [--rate OPS_PER_S] [--warmup-ms N] 
+ *        [--duration-ms N] [--trace FILE] [--seed N] [--json]<br/>
+ * --instances is per thread; --json prints the report as JSON.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMLoadGenerator {
+    
+    /* Parking oversleeps by tens of microseconds; the rest is spun */
+    private static final long SPIN_NANOS = 100000;
+    
+    private final FSMStates _states;
+    private final String[][] _messages;
+    private List<String[]> _trace = null;
+    private int _threads = Runtime.getRuntime().availableProcessors();
+    private int _instances = 1024;
+    private long _rate = 0;
+    private long _warmupMillis = 1000;
+    private long _durationMillis = 5000;
+    private long _seed = 1;
+    
+    /**
+     * 
+     * @param states Configuration whose FSMs are driven
+     */
+    public FSMLoadGenerator(FSMStates states) {
+        this._states = states;
+        List<?> all = states.getAllStates();
+        this._messages = new String[all.size()][];
+        for (int i = 0; i < all.size(); i++) {
+            Map<String, FSMTransitionInfo> t = 
+                    ((FSMState) all.get(i)).getNewTransitionMap();
+            this._messages[i] = t == null ? new String[0] 
+                    : t.keySet().toArray(new String[t.size()]);
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.err.println("Usage: java Tools.FSMLoadGenerator config.xml"
+                    + " [--threads N] [--instances N] [--rate OPS_PER_S]"
+                    + " [--warmup-ms N] [--duration-ms N] [--trace FILE]"
+                    + " [--seed N] [--json]");
+            System.exit(2);
+        }
+        FSMLoadGenerator g = new FSMLoadGenerator(new FSMStates(args[0], true));
+        boolean json = false;
+        for (int i = 1; i < args.length; i++) {
+            String a = args[i];
+            if ("--threads".equals(a)) g._threads = Integer.parseInt(args[++i]);
+            else if ("--instances".equals(a)) g._instances = Integer.parseInt(args[++i]);
+            else if ("--rate".equals(a)) g._rate = Long.parseLong(args[++i]);
+            else if ("--warmup-ms".equals(a)) g._warmupMillis = Long.parseLong(args[++i]);
+            else if ("--duration-ms".equals(a)) g._durationMillis = Long.parseLong(args[++i]);
+            else if ("--trace".equals(a)) g.setTrace(readTrace(args[++i]));
+            else if ("--seed".equals(a)) g._seed = Long.parseLong(args[++i]);
+            else if ("--json".equals(a)) json = true;
+            else throw new IllegalArgumentException("Unknown option " + a);
+        }
+        Report r = g.run();
+        if (json) r.printJson(System.out, args[0]);
+        else r.print(System.out, args[0]);
+    }
+    
+    /**
+     * Method reads a recorded trace; each non empty line is a sequence of
+     * messages separated by white space or commas<br/>
+     * 
+     * @param file Trace file
+     * @return Sequences of messages
+     * @throws IOException
+     */
+    public static List<String[]> readTrace(String file) throws IOException {
+        List<String[]> l = new ArrayList<String[]>();
+        try (BufferedReader r = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                l.add(line.split("[\\s,]+"));
+            }
+        }
+        return l;
+    }
+    
+    /**
+     * 
+     * @param trace Sequences of messages to replay; null, for random 
+     *        messages along valid transitions
+     */
+    public void setTrace(List<String[]> trace) {
+        this._trace = trace == null || trace.isEmpty() ? null : trace;
+    }
+    
+    public void setThreads(int threads) { this._threads = threads; }
+    
+    public void setInstances(int instances) { this._instances = instances; }
+    
+    /**
+     * 
+     * @param rate Messages per second over all threads; 0, for as fast as
+     *        possible
+     */
+    public void setRate(long rate) { this._rate = rate; }
+    
+    public void setWarmupMillis(long millis) { this._warmupMillis = millis; }
+    
+    public void setDurationMillis(long millis) { this._durationMillis = millis; }
+    
+    public void setSeed(long seed) { this._seed = seed; }
+    
+    /**
+     * Result of a run
+     */
+    public static class Report {
+        public final int threads;
+        public final long rate;
+        public final long millis;
+        public final long messages;
+        public final long committed;
+        public final LatencyHistogram latency;
+        /** Bytes allocated by the driving threads; -1, if not supported */
+        public final long allocated;
+        
+        Report(int threads, long rate, long millis, long messages, 
+                long committed, LatencyHistogram latency, long allocated) {
+            this.threads = threads;
+            this.rate = rate;
+            this.millis = millis;
+            this.messages = messages;
+            this.committed = committed;
+            this.latency = latency;
+            this.allocated = allocated;
+        }
+        
+        public double getThroughput() { return messages * 1000.0 / millis; }
+        
+        /** @return Bytes allocated per second; -1, if not supported */
+        public double getAllocationRate() { 
+            return allocated < 0 ? -1 : allocated * 1000.0 / millis; 
+        }
+        
+        /** @return Bytes allocated per message; -1, if not supported */
+        public double getAllocationPerMessage() { 
+            return allocated < 0 || messages == 0 ? -1 
+                    : (double) allocated / messages; 
+        }
+        
+        public void print(PrintStream out, String config) {
+            out.println("FSM load: " + config + ", " + threads + " threads, " 
+                    + (rate > 0 ? "open loop at " + rate + " msg/s" : "closed loop")
+                    + ", " + millis + " ms");
+            out.printf(Locale.ROOT, "  messages     %14d (%d committed)%n", 
+                    messages, committed);
+            out.printf(Locale.ROOT, "  throughput   %14.0f msg/s%n", getThroughput());
+            out.printf(Locale.ROOT, "  latency us   p50 %.2f  p99 %.2f  p99.9 %.2f"
+                    + "  max %.2f  mean %.2f%n", 
+                    latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3,
+                    latency.getPercentile(99.9) / 1e3, latency.getMax() / 1e3, 
+                    latency.getMean() / 1e3);
+            if (allocated < 0) out.println("  allocation   not supported");
+            else out.printf(Locale.ROOT, "  allocation   %14.1f MB/s (%.1f B/msg)%n",
+                    getAllocationRate() / 1e6, getAllocationPerMessage());
+        }
+        
+        public void printJson(PrintStream out, String config) {
+            out.printf(Locale.ROOT, "{\"config\":\"%s\",\"threads\":%d,"
+                    + "\"mode\":\"%s\",\"rate\":%d,\"durationMs\":%d,"
+                    + "\"messages\":%d,\"committed\":%d,\"throughput\":%.1f,"
+                    + "\"latencyNs\":{\"p50\":%d,\"p99\":%d,\"p999\":%d,"
+                    + "\"max\":%d,\"mean\":%.1f},"
+                    + "\"allocatedBytes\":%d,\"allocationRate\":%.1f,"
+                    + "\"bytesPerMessage\":%.1f}%n",
+                    config.replace("\\", "\\\\").replace("\"", "\\\""), threads,
+                    rate > 0 ? "open" : "closed", rate, millis, messages, 
+                    committed, getThroughput(), latency.getPercentile(50), 
+                    latency.getPercentile(99), latency.getPercentile(99.9), 
+                    latency.getMax(), latency.getMean(), allocated, 
+                    getAllocationRate(), getAllocationPerMessage());
+        }
+    }
+    
+    /**
+     * Method runs a warmup, then the measured run<br/>
+     * 
+     * @return Report of the measured run
+     * @throws InterruptedException
+     */
+    public Report run() throws InterruptedException {
+        Driver[] d = new Driver[this._threads];
+        for (int i = 0; i < d.length; i++) d[i] = new Driver(i);
+        if (this._warmupMillis > 0) phase(d, this._warmupMillis);
+        return phase(d, this._durationMillis);
+    }
+    
+    /*
+     * The instances of one thread, and the position of each in its trace
+     */
+    private class Driver {
+        final FSM[] fsms = new FSM[_instances];
+        final int[] seq = new int[_instances];
+        final int[] pos = new int[_instances];
+        final Random random;
+        int next = 0;
+        long messages, committed, allocated;
+        LatencyHistogram latency = new LatencyHistogram();
+        
+        Driver(int n) {
+            this.random = new Random(_seed * 31 + n);
+            for (int i = 0; i < fsms.length; i++) {
+                fsms[i] = new FSM(_states.getDefinition(), null);
+                if (_trace != null) seq[i] = (n * _instances + i) % _trace.size();
+            }
+        }
+        
+        /*
+         * Picks the next instance and its message
+         */
+        String message(int i) {
+            FSM f = fsms[i];
+            if (_trace == null) {
+                String[] m = _messages[ordinal(f)];
+                if (m.length == 0) {
+                    f.reset();
+                    m = _messages[ordinal(f)];
+                    if (m.length == 0) return null;
+                }
+                return m[random.nextInt(m.length)];
+            }
+            String[] s = _trace.get(seq[i]);
+            if (pos[i] == s.length) {
+                f.reset();
+                seq[i] = (seq[i] + 1) % _trace.size();
+                pos[i] = 0;
+                s = _trace.get(seq[i]);
+            }
+            return s[pos[i]++];
+        }
+        
+        int ordinal(FSM f) {
+            return _states.getState(f.getCurrentState()).getOrdinal();
+        }
+        
+        void send(long due) {
+            int i = next;
+            if (++next == fsms.length) next = 0;
+            String m = message(i);
+            if (m != null && fsms[i].process(m).isCommitted()) committed++;
+            latency.record(System.nanoTime() - due);
+            messages++;
+        }
+    }
+    
+    /*
+     * Runs the drivers for the duration, returning their merged results
+     */
+    private Report phase(final Driver[] drivers, long millis) 
+            throws InterruptedException {
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        final boolean alloc = mx instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemoryEnabled();
+        final long interval = this._rate > 0 ? 
+                Math.max(1, 1000000000L * drivers.length / this._rate) : 0;
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] times = new long[2];
+        Thread[] ts = new Thread[drivers.length];
+        for (int i = 0; i < drivers.length; i++) {
+            final Driver d = drivers[i];
+            d.messages = 0;
+            d.committed = 0;
+            d.latency.reset();
+            ts[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                long id = Thread.currentThread().getId();
+                long a0 = alloc ? 
+                        ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(id) : 0;
+                long begin = times[0], end = times[1];
+                if (interval == 0) {
+                    for (long t0; (t0 = System.nanoTime()) < end; ) d.send(t0);
+                } else {
+                    for (long due = begin; due < end; due += interval) {
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0) {
+                            if (wait > SPIN_NANOS) LockSupport.parkNanos(wait - SPIN_NANOS);
+                            else Thread.onSpinWait();
+                        }
+                        d.send(due);
+                    }
+                }
+                d.allocated = alloc ? 
+                        ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(id) - a0 : -1;
+            }, "fsm-load-" + i);
+            ts[i].setDaemon(true);
+            ts[i].start();
+        }
+        times[0] = System.nanoTime();
+        times[1] = times[0] + millis * 1000000L;
+        start.countDown();
+        LatencyHistogram all = new LatencyHistogram();
+        long messages = 0, committed = 0, allocated = alloc ? 0 : -1;
+        for (int i = 0; i < ts.length; i++) {
+            ts[i].join();
+            all.add(drivers[i].latency);
+            messages += drivers[i].messages;
+            committed += drivers[i].committed;
+            if (alloc) allocated += drivers[i].allocated;
+        }
+        return new Report(drivers.length, this._rate, millis, messages, 
+                committed, all, allocated);
+    }
+}
@@ -0,0 +1,346 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Tools;
+
+import Action.FSMAction;
+import Common.CustomXMLReader;
+import FSM.FSM;
+import States.FSMDefinition;
+import States.FSMStateAction;
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class measures how FSMs behave when driven by many threads<br/>
+ * 
+ * <p>
+ * The harness runs three workloads at 1, 2, 4 ... up to the specified 
+ * number of threads, and reports throughput, its scaling against a single
+ * thread, and latency percentiles of {@link FSM#process}:
+ * <ul>
+ *  <li>independent - each thread drives its own FSM instances
+ *  <li>shared - all threads drive one FSM in concurrent mode
+ *  <li>callbacks - each thread drives its own instances, whose action and
+ *      state hooks contend on shared state
+ * </ul>
+ * It then checks a shared FSM in concurrent mode for lost or duplicate
+ * transitions over many short trials, classifying each trial outcome as
+ * acceptable or forbidden.
+ * </p>
+ * 
+ * <p>
+ * Usage: java Tools.FSMStressHarness [--threads N] [--warmup-ms N]
+ *        [--measure-ms N] [--instances N] [--trials N] [--unsafe]<br/>
+ * --unsafe also runs the checks with concurrent mode off, which is
+ * expected to report forbidden outcomes.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class FSMStressHarness {
+    
+    private int _maxThreads = Runtime.getRuntime().availableProcessors();
+    private long _warmupMillis = 500;
+    private long _measureMillis = 1000;
+    private int _instances = 1024;
+    private int _trials = 200;
+    private boolean _unsafe = false;
+    
+    private static final String MESSAGE = "NEXT";
+    private final FSMDefinition _ring;
+    
+    public FSMStressHarness() throws Exception {
+        this._ring = ring(3);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        FSMStressHarness h = new FSMStressHarness();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if ("--threads".equals(a)) h._maxThreads = Integer.parseInt(args[++i]);
+            else if ("--warmup-ms".equals(a)) h._warmupMillis = Long.parseLong(args[++i]);
+            else if ("--measure-ms".equals(a)) h._measureMillis = Long.parseLong(args[++i]);
+            else if ("--instances".equals(a)) h._instances = Integer.parseInt(args[++i]);
+            else if ("--trials".equals(a)) h._trials = Integer.parseInt(args[++i]);
+            else if ("--unsafe".equals(a)) h._unsafe = true;
+            else throw new IllegalArgumentException("Unknown option " + a);
+        }
+        h.run(System.out);
+    }
+    
+    /**
+     * Method builds a definition of states S0 ... S(n-1) in a ring; the 
+     * message NEXT moves from each state to the following one.
+     * 
+     * @param n Number of states
+     * @return Definition of the ring
+     * @throws Exception
+     */
+    static FSMDefinition ring(int n) throws Exception {
+        StringBuilder b = new StringBuilder("<FSM>");
+        for (int i = 0; i < n; i++) {
+            b.append("<STATE id=\"S").append(i).append("\"><MESSAGE id=\"")
+             .append(MESSAGE).append("\" action=\"next\" nextState=\"S")
+             .append((i + 1) % n).append("\"/></STATE>");
+        }
+        b.append("</FSM>");
+        return new FSMDefinition(new CustomXMLReader(new ByteArrayInputStream(
+                b.toString().getBytes(StandardCharsets.UTF_8))), false);
+    }
+    
+    /**
+     * Method runs all workloads and checks, printing a report<br/>
+     * 
+     * @param out Stream the report is printed to
+     * @throws Exception
+     */
+    public void run(PrintStream out) throws Exception {
+        out.println("FSM stress harness: up to " + _maxThreads + " threads, "
+                + _measureMillis + " ms per run, " + _instances 
+                + " instances per thread");
+        scaling(out, new Workload("independent") {
+            FSM[][] fsms;
+            void setup(int threads) {
+                fsms = new FSM[threads][_instances];
+                for (FSM[] t : fsms) 
+                    for (int i = 0; i < t.length; i++) t[i] = new FSM(_ring, null);
+            }
+            void op(int thread, long i) { 
+                fsms[thread][(int) (i % _instances)].process(MESSAGE); 
+            }
+        });
+        scaling(out, new Workload("shared") {
+            FSM fsm;
+            void setup(int threads) {
+                fsm = new FSM(_ring, null);
+                fsm.setConcurrent(true);
+            }
+            void op(int thread, long i) { fsm.process(MESSAGE); }
+        });
+        scaling(out, new Workload("callbacks") {
+            FSM[][] fsms;
+            void setup(int threads) {
+                final Object monitor = new Object();
+                final long[] counter = new long[1];
+                final AtomicLong hooks = new AtomicLong();
+                FSMAction act = new FSMAction() {
+                    @Override
+                    public boolean action(String curState, String message, 
+                            String nextState, Object args) {
+                        synchronized (monitor) { counter[0]++; }
+                        return true;
+                    }
+                };
+                FSMStateAction hook = new FSMStateAction() {
+                    @Override
+                    public void stateTransition(String state, Object arg) {
+                        hooks.incrementAndGet();
+                    }
+                };
+                FSMDefinition d;
+                try {
+                    d = ring(3);
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                d.setAction(MESSAGE, act);
+                d.setStateBeforeTransition((ArrayList<String>) null, hook);
+                d.setStateAfterTransition((ArrayList<String>) null, hook);
+                fsms = new FSM[threads][_instances];
+                for (FSM[] t : fsms) 
+                    for (int i = 0; i < t.length; i++) t[i] = new FSM(d, null);
+            }
+            void op(int thread, long i) { 
+                fsms[thread][(int) (i % _instances)].process(MESSAGE); 
+            }
+        });
+        
+        out.println();
+        check(out, true);
+        if (_unsafe) check(out, false);
+    }
+    
+    /*
+     * A workload; op is called by thread number 'thread' for its i-th call.
+     */
+    private abstract static class Workload {
+        final String name;
+        Workload(String name) { this.name = name; }
+        abstract void setup(int threads);
+        abstract void op(int thread, long i);
+    }
+    
+    private List<Integer> threadCounts() {
+        List<Integer> l = new ArrayList<Integer>();
+        for (int t = 1; t < _maxThreads; t <<= 1) l.add(t);
+        l.add(_maxThreads);
+        return l;
+    }
+    
+    private void scaling(PrintStream out, Workload w) throws InterruptedException {
+        out.println();
+        out.println("Workload: " + w.name);
+        out.printf("%8s %14s %8s %10s %10s %10s %10s%n", "threads", "ops/s", 
+                "scaling", "p50 us", "p99 us", "p99.9 us", "max us");
+        double base = 0;
+        for (int t : threadCounts()) {
+            w.setup(t);
+            phase(w, t, _warmupMillis);
+            LatencyHistogram h = phase(w, t, _measureMillis);
+            double tput = h.getCount() * 1000.0 / _measureMillis;
+            if (base == 0) base = tput;
+            out.printf("%8d %14.0f %8.2f %10.2f %10.2f %10.2f %10.2f%n", t, tput,
+                    tput / base, h.getPercentile(50) / 1e3, 
+                    h.getPercentile(99) / 1e3, h.getPercentile(99.9) / 1e3,
+                    h.getMax() / 1e3);
+        }
+    }
+    
+    /*
+     * Runs the workload on the threads for the duration; returns the merged
+     * latencies of all threads.
+     */
+    private LatencyHistogram phase(final Workload w, int threads, long millis) 
+            throws InterruptedException {
+        final LatencyHistogram[] hs = new LatencyHistogram[threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] stopAt = new long[1];
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            hs[i] = new LatencyHistogram();
+            ts[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    LatencyHistogram h = hs[n];
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    long end = stopAt[0];
+                    for (long i = 0; ; i++) {
+                        long t0 = System.nanoTime();
+                        if (t0 >= end) break;
+                        w.op(n, i);
+                        h.record(System.nanoTime() - t0);
+                    }
+                }
+            }, "fsm-stress-" + i);
+            ts[i].start();
+        }
+        stopAt[0] = System.nanoTime() + millis * 1000000L;
+        start.countDown();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int i = 0; i < threads; i++) {
+            ts[i].join();
+            all.add(hs[i]);
+        }
+        return all;
+    }
+    
+    /*
+     * Runs short trials of threads driving one FSM, and tallies outcomes.
+     */
+    private void check(PrintStream out, boolean concurrent) throws Exception {
+        out.println("Check: shared instance, concurrent mode " 
+                + (concurrent ? "on" : "off") + ", " + _trials + " trials");
+        Map<String, Integer> outcomes = new LinkedHashMap<String, Integer>();
+        for (int t : threadCounts()) {
+            if (t < 2) continue;
+            for (int i = 0; i < _trials; i++) {
+                String o = trial(t, 1000, concurrent);
+                Integer c = outcomes.get(o);
+                outcomes.put(o, c == null ? 1 : c + 1);
+            }
+        }
+        int forbidden = 0;
+        for (Map.Entry<String, Integer> e : outcomes.entrySet()) {
+            boolean ok = "OK".equals(e.getKey());
+            if (!ok) forbidden += e.getValue();
+            out.printf("%12d  %-10s %s%n", e.getValue(), 
+                    ok ? "ACCEPTABLE" : "FORBIDDEN", e.getKey());
+        }
+        out.println(forbidden == 0 ? "PASSED" : "FAILED: " + forbidden 
+                + " forbidden outcomes");
+    }
+    
+    /*
+     * Threads each send 'perThread' NEXT messages to one FSM of a ring of 3
+     * states. Every transition must start from the state the previous one
+     * ended in, and the FSM must end in the state reached by the total
+     * number of transitions.
+     */
+    private String trial(int threads, final int perThread, boolean concurrent) 
+            throws Exception {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        final AtomicLong committed = new AtomicLong();
+        FSMDefinition d = ring(3);
+        final FSM f = new FSM(d, new FSMAction() {
+            @Override
+            public boolean action(String curState, String message, 
+                    String nextState, Object args) {
+                long n = calls.getAndIncrement();
+                if (!curState.equals("S" + (n % 3))) duplicates.incrementAndGet();
+                return true;
+            }
+        });
+        f.setConcurrent(concurrent);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ts[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int j = 0; j < perThread; j++) {
+                        if (f.process(MESSAGE).isCommitted()) committed.incrementAndGet();
+                    }
+                }
+            });
+            ts[i].start();
+        }
+        start.countDown();
+        for (Thread t : ts) t.join();
+        
+        long expected = (long) threads * perThread;
+        if (committed.get() != expected) return "lost commits";
+        if (calls.get() != expected) return "action calls differ from commits";
+        if (duplicates.get() > 0) return "duplicate transitions from one state";
+        if (!f.getCurrentState().equals("S" + (expected % 3))) return "lost transitions";
+        return "OK";
+    }
+}
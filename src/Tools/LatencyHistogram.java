@@ -0,0 +1,124 @@
+/**
+ *                      GNU Public License
+ * Copyright (C) 2014 Free Software Foundation, Inc. <http://fsf.org>
+ * 
+ * This file is part of library EasyFSM.
+ * 
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. This library can be redistributed
+ * or used in case this license is copied as it is.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author : Ankit
+ * Report bugs to : hiiankit (at) gmail (dot) com
+**/
+package Tools;
+
+import java.util.Arrays;
+
+/**
+ * Class implements a histogram of latencies in nanoseconds<br/>
+ * 
+ * <p>
+ * Values are counted in buckets of logarithmic size, each power of two
+ * being split into 16 linear sub-buckets; a reported percentile is thus
+ * within about 6% of the recorded value. Recording costs no allocation.
+ * A histogram is not thread safe; threads record into their own histogram,
+ * which are then added up.
+ * </p>
+ * 
+ * @author ANKIT
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    
+    private final long[] _counts = new long[64 * SUB];
+    private long _count;
+    private long _sum;
+    private long _max;
+    
+    /**
+     * 
+     * @param nanos Latency to be recorded
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        this._counts[index(nanos)]++;
+        this._count++;
+        this._sum += nanos;
+        if (nanos > this._max) this._max = nanos;
+    }
+    
+    /**
+     * 
+     * @param other Histogram whose counts are added to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < this._counts.length; i++) {
+            this._counts[i] += other._counts[i];
+        }
+        this._count += other._count;
+        this._sum += other._sum;
+        this._max = Math.max(this._max, other._max);
+    }
+    
+    /**
+     * Method clears all recorded values<br/>
+     */
+    public void reset() {
+        Arrays.fill(this._counts, 0);
+        this._count = 0;
+        this._sum = 0;
+        this._max = 0;
+    }
+    
+    /**
+     * 
+     * @param percentile Percentile, between 0 and 100
+     * @return Latency below which the percentile of values lie
+     */
+    public long getPercentile(double percentile) {
+        if (this._count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * this._count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < this._counts.length; i++) {
+            seen += this._counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), this._max);
+        }
+        return this._max;
+    }
+    
+    public long getCount() { return this._count; }
+    
+    public long getMax() { return this._max; }
+    
+    public double getMean() { 
+        return this._count == 0 ? 0 : (double) this._sum / this._count; 
+    }
+    
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        int sub = (int) (v >>> shift) & (SUB - 1);
+        return (shift + 1) * SUB + sub;
+    }
+    
+    private static long upperBound(int i) {
+        if (i < SUB) return i;
+        int shift = i / SUB - 1;
+        long sub = i % SUB;
+        return ((SUB + sub + 1) << shift) - 1;
+    }
+}